@@ -0,0 +1,272 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Headless analysis server that finds the best move and score of positions, for using the engine
+ * as a service without starting a JVM (and warming up its caches) for every query:
+ *   java AnalysisServer [port] [threads] [tableMegabytes] [endgameTableMegabytes]
+ * Without a port (or with "-") it reads requests from stdin and writes the responses to stdout;
+ * with a port it accepts any number of connections on that port of the loopback address.
+ * Requests from all connections are run on one pool of threads, each with its own HMINIMAX, and
+ * all engines share one transposition table that stays warm between requests, and another one for
+ * their endgame solvers.
+ * The protocol is line based. A request is
+ *   analyze board=<squares> player=<1|2> [id=<id>] [depth=<plies>] [time=<ms>]
+ * where squares lists the board row by row from the top, one character per square: '.' or '0' for
+ * empty, 'X', 'B' or '1' for black and 'O', 'W' or '2' for white ('/' between rows is ignored), as
+ * the int[][] of GameState(int[][], int). It searches to the given depth (at most the number of
+ * empty squares) without the endgame solver, or iteratively for the given time (DEFAULT_TIME_MILLIS
+ * if neither is given), in which the endgame solver solves positions with few empty squares.
+ * Since requests run in parallel, the
+ * responses can come in another order; each starts with the id of the request (the number of the
+ * request on the connection, from 1, if it has none):
+ *   <id> ok move=<col>,<row>|pass score=<score> mode=depth|solved depth=<plies> nodes=<nodes> ms=<ms>
+ *   <id> error <message>
+ * The score is from the view of the player in turn: in evaluation units after a depth-limited
+ * search (mode=depth), or the final disc difference if the endgame solver has solved the
+ * position (mode=solved). The request "stats" answers with
+ * the counts of the server and its transposition table, and "quit" closes the connection (or ends
+ * the stdin mode; at the end of stdin, the server exits once the running requests are answered).
+ */
+public class AnalysisServer {
+    public static final long DEFAULT_TIME_MILLIS = 1000;
+    public static final long DEFAULT_TABLE_MEGABYTES = 256;
+    public static final long DEFAULT_ENDGAME_TABLE_MEGABYTES = 64;
+
+    private final ExecutorService pool;
+    // the engines that are not searching; there is one per thread of the pool
+    private final BlockingQueue<HMINIMAX> engines;
+    private final TranspositionTable table;
+    private final TranspositionTable endgameTable;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong nodes = new AtomicLong();
+
+    public AnalysisServer(int threads, long tableBytes, long endgameTableBytes) {
+        AtomicInteger count = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "analysis-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        table = new TranspositionTable(tableBytes);
+        endgameTable = new TranspositionTable(endgameTableBytes);
+        engines = new ArrayBlockingQueue<>(threads);
+        for(int i = 0; i < threads; i++) engines.add(new HMINIMAX(table, endgameTable));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String port = args.length > 0 ? args[0] : "-";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long tableBytes = (args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_TABLE_MEGABYTES) << 20;
+        long endgameTableBytes = (args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_ENDGAME_TABLE_MEGABYTES) << 20;
+        AnalysisServer server = new AnalysisServer(threads, tableBytes, endgameTableBytes);
+        if(port.equals("-")) {
+            server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                    new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), true));
+            server.shutdown();
+        } else {
+            server.listen(Integer.parseInt(port));
+        }
+    }
+
+    /**
+     * Accepts connections on the given port of the loopback address until the process is killed,
+     * serving each on its own thread.
+     */
+    public void listen(int port) throws IOException {
+        try(ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("Analysis server listening on " + socket.getLocalSocketAddress());
+            while(true) {
+                Socket client = socket.accept();
+                Thread t = new Thread(() -> {
+                    try(Socket c = client) {
+                        serve(new BufferedReader(new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8)),
+                                new PrintWriter(new OutputStreamWriter(c.getOutputStream(), StandardCharsets.UTF_8), true));
+                    } catch(IOException e) {
+                        System.err.println("Connection failed: " + e.getMessage());
+                    }
+                }, "analysis-connection");
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+    }
+
+    /**
+     * Reads requests until "quit" or the end of the input, and writes the responses as the requests
+     * are answered. Returns once all requests read are answered.
+     */
+    public void serve(BufferedReader in, PrintWriter out) throws IOException {
+        AtomicInteger pending = new AtomicInteger();
+        int number = 0;
+        String line;
+        while((line = in.readLine()) != null) {
+            line = line.trim();
+            if(line.isEmpty()) continue;
+            number++;
+            String command = line.split("\\s+", 2)[0];
+            if(command.equals("quit")) break;
+            if(command.equals("stats")) {
+                respond(out, number + " ok " + stats());
+            } else if(command.equals("analyze")) {
+                Map<String, String> args = arguments(line);
+                String id = args.getOrDefault("id", Integer.toString(number));
+                requests.incrementAndGet();
+                synchronized(pending) {
+                    pending.incrementAndGet();
+                }
+                pool.execute(() -> {
+                    try {
+                        respond(out, id + " " + analyze(args));
+                    } finally {
+                        synchronized(pending) {
+                            pending.decrementAndGet();
+                            pending.notifyAll();
+                        }
+                    }
+                });
+            } else {
+                errors.incrementAndGet();
+                respond(out, number + " error Unknown command: " + command);
+            }
+        }
+        synchronized(pending) {
+            while(pending.get() > 0) {
+                try {
+                    pending.wait();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void respond(PrintWriter out, String response) {
+        synchronized(out) {
+            out.println(response);
+        }
+    }
+
+    /**
+     * Returns the key=value arguments of a request.
+     */
+    private static Map<String, String> arguments(String line) {
+        Map<String, String> args = new HashMap<>();
+        String[] words = line.split("\\s+");
+        for(int i = 1; i < words.length; i++) {
+            int eq = words[i].indexOf('=');
+            if(eq < 0) args.put(words[i], "");
+            else args.put(words[i].substring(0, eq), words[i].substring(eq + 1));
+        }
+        return args;
+    }
+
+    /**
+     * Searches the position of an analyze request on the calling thread, with an idle engine.
+     * @return the response without the id
+     */
+    private String analyze(Map<String, String> args) {
+        GameState s;
+        Integer depth;
+        Long millis;
+        try {
+            s = parsePosition(args.get("board"), args.get("player"));
+            depth = args.containsKey("depth") ? Integer.valueOf(args.get("depth")) : null;
+            millis = args.containsKey("time") ? Long.valueOf(args.get("time")) : null;
+            if(depth != null && millis != null) throw new IllegalArgumentException("Give either depth or time, not both");
+            if(depth != null && depth < 1 || millis != null && millis < 1)
+                throw new IllegalArgumentException("The depth and time must be positive");
+            if(depth != null) depth = Math.min(depth, Math.max(1, s.getEmptyCount())); // no deeper than the end of the game
+        } catch(IllegalArgumentException e) {
+            errors.incrementAndGet();
+            return "error " + e.getMessage();
+        }
+
+        HMINIMAX engine = engines.poll();  // never empty, since there is one engine per thread
+        try {
+            Position move;
+            if(depth != null) { // a solve without a deadline could take any time, and is not what was asked
+                engine.setEndgameEmpties(0);
+                engine.setDepth(depth);
+                move = engine.decision(s);
+            } else {
+                engine.setEndgameEmpties(HMINIMAX.DEFAULT_ENDGAME_EMPTIES);
+                move = engine.decision(s, Duration.ofMillis(millis != null ? millis : DEFAULT_TIME_MILLIS));
+            }
+            SearchStats stats = engine.getStats();
+            SearchStats.Iteration last = stats.getLastCompleted();
+            nodes.addAndGet(stats.getNodes());
+            return "ok move=" + (move == null ? "pass" : move.col + "," + move.row)
+                    + " score=" + (last == null ? 0 : last.value)
+                    + " mode=" + (last != null && last.endgame ? "solved" : "depth")
+                    + " depth=" + stats.getDepth()
+                    + " nodes=" + stats.getNodes()
+                    + " ms=" + stats.getNanos() / 1_000_000;
+        } catch(RuntimeException e) {
+            errors.incrementAndGet();
+            return "error Search failed: " + e;
+        } finally {
+            engines.add(engine);
+        }
+    }
+
+    /**
+     * Parses the board and player of a request into a game state.
+     * @throws IllegalArgumentException if they are missing or malformed
+     */
+    static GameState parsePosition(String board, String player) {
+        if(board == null || player == null) throw new IllegalArgumentException("Missing board or player");
+        String squares = board.replace("/", "");
+        int size = (int) Math.round(Math.sqrt(squares.length()));
+        if(size * size != squares.length() || size < 4 || size % 2 != 0)
+            throw new IllegalArgumentException("Not an even square board of at least 4x4: " + squares.length() + " squares");
+        int[][] b = new int[size][size];
+        for(int row = 0; row < size; row++) {
+            for(int col = 0; col < size; col++) {
+                char c = Character.toUpperCase(squares.charAt(row * size + col));
+                if(c == '.' || c == '0') b[col][row] = 0;
+                else if(c == 'X' || c == 'B' || c == '1') b[col][row] = 1;
+                else if(c == 'O' || c == 'W' || c == '2') b[col][row] = 2;
+                else throw new IllegalArgumentException("Not a square: " + c);
+            }
+        }
+        if(!player.equals("1") && !player.equals("2")) throw new IllegalArgumentException("Not a player: " + player);
+        return new GameState(b, Integer.parseInt(player));
+    }
+
+    private String stats() {
+        long probes = table.getProbes();
+        return "requests=" + requests.get() + " errors=" + errors.get() + " nodes=" + nodes.get()
+                + " tableSize=" + table.getEntryCount() + " tableProbes=" + probes
+                + " tableHitRate=" + (probes == 0 ? 0 : table.getHits() * 1000 / probes / 10.0) + "%";
+    }
+
+    /**
+     * Stops the pool once the requests given to it are done.
+     */
+    public void shutdown() throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,283 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Headless tournament between two AIs, without the GUI:
+ *   java Arena OthelloAI1 OthelloAI2 [size] [games] [threads] [openingPlies]
+ * The AIs are loaded like in Othello (see Othello.parseGameLogicParam), with one instance of each
+ * per thread that is reused from game to game (a SmarterAI forgets its earlier games, see
+ * SmarterAI.newGame), and the games run in parallel on a pool of threads. By default there is a
+ * thread per processor, but no more than the heap holds the tables of (GAME_BYTES per thread). Each pair of games starts from
+ * the same random opening, with the colors swapped, and a move is played as in
+ * OthelloGUI.mouseClicked: a player without legal moves passes, and an illegal move loses the game.
+ * The AIs decide through AsyncAI; with the system property othello.timeout a decision is stopped
+ * after that many seconds, and an AI that has no move by then loses too.
+ * Every finished game is printed as it ends, and at the end the results from the first AI's point
+ * of view: wins, draws and losses, the average disc difference, the move times of both AIs
+ * (percentiles) and the Elo difference with a 95% confidence interval.
+ * What the AIs print themselves is discarded, so that the results stay readable.
+ * With the system property othello.arena.book the games are added to that opening book (see
+ * BookBuilder), which is created if it does not exist, and with othello.arena.records they are
+ * appended to that game record file (see GameRecordWriter).
+ */
+public class Arena {
+    public static final int DEFAULT_GAMES = 20;
+    public static final int DEFAULT_OPENING_PLIES = 4;
+    public static final String BOOK_PROPERTY = "othello.arena.book";
+    public static final String RECORDS_PROPERTY = "othello.arena.records";
+    // the tables of the two engines of a game (search and endgame solver each)
+    public static final long GAME_BYTES = 2 * (HMINIMAX.DEFAULT_TABLE_BYTES + EndgameSolver.DEFAULT_TABLE_BYTES);
+
+    private final String[] names;
+    private final int size;
+    private final int openingPlies;
+    private final PrintStream out;
+
+    // results from the first AI's point of view, and the move times (in ms) of each AI
+    private int wins, draws, losses;
+    private long discDifference;
+    private final List<List<Double>> times = Arrays.asList(new ArrayList<>(), new ArrayList<>());
+    // the book the games are added to, null if none
+    private BookBuilder book;
+    // the file the games are recorded in, null if none
+    private GameRecordWriter records;
+    private final Duration moveTimeout = AsyncAI.moveTimeout();
+    // the two AIs of the thread, in the order of names, created for its first game
+    private final ThreadLocal<IOthelloAI[]> players = new ThreadLocal<>();
+
+    public Arena(String ai1, String ai2, int size, int openingPlies, PrintStream out) {
+        this.names = new String[]{ai1, ai2};
+        this.size = size;
+        this.openingPlies = openingPlies;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 2 || args[0].equalsIgnoreCase(Othello.HUMAN_CMD) || args[1].equalsIgnoreCase(Othello.HUMAN_CMD)) {
+            System.err.println("Usage: java Arena OthelloAI1 OthelloAI2 [size] [games] [threads] [openingPlies]");
+            System.exit(1);
+        }
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int games = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_GAMES;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : defaultThreads();
+        int openingPlies = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_OPENING_PLIES;
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Arena arena = new Arena(args[0], args[1], size, openingPlies, out);
+        String bookFile = System.getProperty(BOOK_PROPERTY, "");
+        BookBuilder book = null;
+        if(!bookFile.isEmpty()) {
+            book = new BookBuilder(size, BookBuilder.DEFAULT_PLIES);
+            if(Files.exists(Paths.get(bookFile))) book.load(Paths.get(bookFile));
+            arena.setBook(book);
+        }
+        String recordsFile = System.getProperty(RECORDS_PROPERTY, "");
+        if(!recordsFile.isEmpty()) arena.setRecords(GameRecordWriter.append(Paths.get(recordsFile)));
+        try {
+            arena.run(games, threads);
+        } finally {
+            if(arena.records != null) arena.records.close();
+        }
+        arena.printSummary();
+        if(book != null) {
+            book.save(Paths.get(bookFile));
+            out.printf("%d positions in the opening book %s%n", book.getEntryCount(), bookFile);
+        }
+    }
+
+    /**
+     * Returns the number of processors, but at most the number of games whose tables fit in the
+     * heap, and at least 1.
+     */
+    public static int defaultThreads() {
+        long games = Runtime.getRuntime().maxMemory() / GAME_BYTES;
+        return (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), games));
+    }
+
+    /**
+     * Adds the games that are played from now on to the given book builder, null for none.
+     */
+    public void setBook(BookBuilder book) {
+        this.book = book;
+    }
+
+    /**
+     * Records the games that are played from now on with the given writer, null for none.
+     */
+    public void setRecords(GameRecordWriter records) {
+        this.records = records;
+    }
+
+
+    /**
+     * Plays the given number of games with the given number of threads.
+     */
+    public void run(int games, int threads) throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for(int g = 0; g < games; g++) {
+                int game = g;
+                tasks.add(pool.submit(() -> {
+                    play(game);
+                    return null;
+                }));
+            }
+            for(Future<?> task : tasks) task.get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Plays one game; in even games the first AI is black, in odd games white.
+     */
+    private void play(int game) throws ReflectiveOperationException, InterruptedException, ExecutionException, IOException {
+        int first = game % 2 == 0 ? 1 : 2; // the color of the first AI
+        IOthelloAI[] ai = new IOthelloAI[2]; // by color
+        ai[first - 1] = player(0);
+        ai[2 - first] = player(1);
+        List<List<Double>> moveTimes = Arrays.asList(new ArrayList<>(), new ArrayList<>()); // by color
+
+        List<Integer> moves = new ArrayList<>();
+        GameState state = opening(game / 2, moves);
+        String result = null;
+        while(!state.isFinished()) {
+            if(state.legalMoves().isEmpty()) { // the player in turn has to pass
+                state.changePlayer();
+                continue;
+            }
+            int player = state.getPlayerInTurn();
+            long start = System.nanoTime();
+            Position place = decide(ai[player - 1], state);
+            moveTimes.get(player - 1).add((System.nanoTime() - start) / 1e6);
+            if(place == null) {
+                result = "no move in time by " + (player == 1 ? "black" : "white");
+                break;
+            }
+            if(!state.insertToken(place)) {
+                result = "illegal move " + place + " by " + (player == 1 ? "black" : "white");
+                break;
+            }
+            moves.add(state.square(place.col, place.row));
+        }
+        if(result == null && book != null) book.addGame(moves);
+
+        int[] tokens = state.countTokens();
+        boolean forfeit = result != null;
+        int diff = first == 1 ? tokens[0] - tokens[1] : tokens[1] - tokens[0];
+        if(forfeit) // the AI that made the illegal move loses
+            diff = state.getPlayerInTurn() == first ? -Math.max(1, Math.abs(diff)) : Math.max(1, Math.abs(diff));
+        else
+            result = tokens[0] + "-" + tokens[1];
+        if(records != null) records.writeGame(size, 1, moves, first == 1 ? diff : -diff, forfeit);
+
+        synchronized(this) {
+            if(diff > 0) wins++;
+            else if(diff < 0) losses++;
+            else draws++;
+            discDifference += diff;
+            times.get(0).addAll(moveTimes.get(first - 1));
+            times.get(1).addAll(moveTimes.get(2 - first));
+            out.printf("game %d: %s (%s) vs %s, %s%n", game + 1, names[0], first == 1 ? "black" : "white",
+                    names[1], result);
+        }
+    }
+
+    /**
+     * Returns the given AI (0 or 1, in the order of names) of this thread, ready for a new game.
+     */
+    private IOthelloAI player(int i) throws ReflectiveOperationException {
+        IOthelloAI[] ai = players.get();
+        if(ai == null) {
+            ai = new IOthelloAI[]{Othello.parseGameLogicParam(names[0]), Othello.parseGameLogicParam(names[1])};
+            players.set(ai);
+        } else if(ai[i] instanceof SmarterAI) {
+            ((SmarterAI) ai[i]).newGame();
+        }
+        return ai[i];
+    }
+
+    /**
+     * Lets the AI decide its move, stopping it after moveTimeout if that is set.
+     * @return the move, or null if it had none when it was stopped
+     */
+    private Position decide(IOthelloAI ai, GameState state) throws InterruptedException, ExecutionException {
+        CancellationToken token = new CancellationToken();
+        if(moveTimeout != null) token.cancelAfter(moveTimeout);
+        try {
+            return AsyncAI.of(ai).decideMoveAsync(state, token).get();
+        } catch(CancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the start state of the given pair of games: openingPlies random moves from the
+     * usual start, the same for both games of the pair. The moves are added to the list.
+     */
+    private GameState opening(int pair, List<Integer> moves) {
+        Random random = new Random(pair);
+        GameState state = new GameState(size, 1);
+        for(int ply = 0; ply < openingPlies && !state.isFinished(); ply++) {
+            List<Position> legal = state.legalMoves();
+            if(legal.isEmpty()) state.changePlayer();
+            else {
+                Position p = legal.get(random.nextInt(legal.size()));
+                state.insertToken(p);
+                moves.add(state.square(p.col, p.row));
+            }
+        }
+        return state;
+    }
+
+    public synchronized void printSummary() {
+        int games = wins + draws + losses;
+        out.printf("%s vs %s on %dx%d: %d games, +%d =%d -%d, average disc difference %.2f%n",
+                names[0], names[1], size, size, games, wins, draws, losses, (double) discDifference / games);
+        for(int i = 0; i < 2; i++) {
+            double[] t = times.get(i).stream().mapToDouble(Double::doubleValue).sorted().toArray();
+            if(t.length == 0) continue;
+            out.printf("%s move times (ms): p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+                    names[i], percentile(t, 50), percentile(t, 90), percentile(t, 99), t[t.length - 1]);
+        }
+
+        // Elo difference from the score, with the interval from its standard error
+        double score = (wins + 0.5 * draws) / games;
+        double variance = (wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2)
+                + losses * Math.pow(score, 2)) / games;
+        double error = 1.96 * Math.sqrt(variance / games);
+        out.printf("Elo difference: %s (95%%: %s to %s)%n",
+                elo(score), elo(score - error), elo(score + error));
+    }
+
+    /**
+     * Returns the p-th percentile of the sorted values (nearest rank).
+     */
+    private static double percentile(double[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static String elo(double score) {
+        if(score <= 0) return "-inf";
+        if(score >= 1) return "+inf";
+        return String.format("%+.0f", -400 * Math.log10(1 / score - 1));
+    }
+}
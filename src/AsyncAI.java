@@ -0,0 +1,115 @@
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Runs the decisions of AIs asynchronously (see IAsyncOthelloAI), on a shared pool of daemon
+ * threads. AsyncAI.of adapts any IOthelloAI: since a plain AI cannot be stopped, cancelling its
+ * decision cancels the future at once and the move it decides later is dropped.
+ * The system property othello.timeout (in seconds) sets the time after which the GUI and Arena
+ * cancel a decision.
+ */
+public class AsyncAI implements IAsyncOthelloAI {
+    public static final String TIMEOUT_PROPERTY = "othello.timeout";
+    // how often a stopped AI is asked again to stop, in case it had not started deciding yet
+    private static final long STOP_RETRY_MILLIS = 10;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "othello-ai-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "othello-ai-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final IOthelloAI ai;
+
+    private AsyncAI(IOthelloAI ai) {
+        this.ai = ai;
+    }
+
+    /**
+     * Returns the AI itself if it is asynchronous, otherwise an adapter running its decideMove on
+     * the shared pool.
+     */
+    public static IAsyncOthelloAI of(IOthelloAI ai) {
+        return ai instanceof IAsyncOthelloAI ? (IAsyncOthelloAI) ai : new AsyncAI(ai);
+    }
+
+    public Position decideMove(GameState s) {
+        return ai.decideMove(s);
+    }
+
+    public CompletableFuture<Position> decideMoveAsync(GameState s, CancellationToken token) {
+        GameState copy = new GameState(s);
+        return run(() -> ai.decideMove(copy), token, null);
+    }
+
+    /**
+     * Runs the decision on the shared pool. When the token is cancelled, stop is called (again
+     * every STOP_RETRY_MILLIS until the decision is done, in case it had not started yet), so that
+     * the decision returns the best move found so far; without stop, the future is cancelled at once.
+     * A decision that has not started when the token is cancelled is not run. Once the decision is
+     * done, the timer of the token is stopped and cancelling it does nothing, so that it cannot stop
+     * a later decision of the same AI.
+     */
+    static CompletableFuture<Position> run(Supplier<Position> decision, CancellationToken token, Runnable stop) {
+        CompletableFuture<Position> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            if(token.isCancelled()) {
+                result.cancel(false);
+                return;
+            }
+            try {
+                result.complete(decision.get());
+            } catch(Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        token.onCancel(() -> {
+            if(result.isDone()) return; // the engine may be deciding another move by now
+            if(stop == null) result.cancel(false);
+            else stopUntilDone(stop, result);
+        });
+        result.whenComplete((move, error) -> {
+            token.disarm();
+            if(result.isCancelled()) token.cancel();
+        });
+        return result;
+    }
+
+    private static void stopUntilDone(Runnable stop, CompletableFuture<?> result) {
+        if(result.isDone()) return;
+        stop.run();
+        timer.schedule(() -> stopUntilDone(stop, result), STOP_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    static ScheduledExecutorService timer() {
+        return timer;
+    }
+
+    /**
+     * Returns the time given by othello.timeout, or null if it is not set.
+     * @throws IllegalArgumentException if it is not a number of seconds
+     */
+    public static Duration moveTimeout() {
+        String seconds = System.getProperty(TIMEOUT_PROPERTY, "");
+        if(seconds.isEmpty()) return null;
+        try {
+            return Duration.ofMillis(Math.round(Double.parseDouble(seconds) * 1000));
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number of seconds: " + TIMEOUT_PROPERTY + "=" + seconds, e);
+        }
+    }
+}
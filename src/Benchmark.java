@@ -0,0 +1,199 @@
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Micro-benchmarks of the GameState operations and the search, without any build tool:
+ *   java Benchmark [filter] [iterations]
+ * Each benchmark runs on a fixed corpus of opening, midgame and endgame positions (from seeded
+ * random games, so the same in every run), first for warmup iterations and then for the given
+ * number of measured iterations of about one second each. It reports the throughput (mean and
+ * standard deviation over the iterations), the allocated bytes per operation of the benchmark
+ * thread, and the number and time of garbage collections.
+ * The scaling benchmarks run the move generation and random playouts on every even board size from
+ * 4x4 to 20x20 (e.g. java Benchmark scaling), to show how the throughput changes on large boards.
+ * Only benchmarks whose name contains filter are run.
+ */
+public class Benchmark {
+    public static final int DEFAULT_ITERATIONS = 5;
+    public static final int WARMUP_ITERATIONS = 3;
+    public static final int POSITIONS_PER_PHASE = 16;
+    // the number of empty squares of the opening, midgame and endgame positions on 8x8
+    private static final int[] PHASE_EMPTIES = {52, 32, 14};
+    private static final long ITERATION_NANOS = 1_000_000_000L;
+    public static final int SEARCH_DEPTH = 4;
+    public static final int MIN_SCALING_SIZE = 4;
+    public static final int MAX_SCALING_SIZE = 20;
+
+    // results of the benchmarks go here, so that the JIT cannot remove the work
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+
+        Map<String, GameState[]> corpus = new LinkedHashMap<>();
+        String[] phases = {"opening", "midgame", "endgame"};
+        for(int i = 0; i < phases.length; i++) corpus.put(phases[i], positions(8, PHASE_EMPTIES[i], 1000L * i));
+
+        int[] moves = new int[64];
+        PatternEvaluator patterns = new PatternEvaluator();
+        EdgeEvaluator edges = new EdgeEvaluator();
+        HMINIMAX engine = new HMINIMAX();
+        engine.setDepth(SEARCH_DEPTH);
+        engine.setEndgameEmpties(0);
+
+        Map<String, ToLongFunction<GameState>> benchmarks = new LinkedHashMap<>();
+        benchmarks.put("legalMoves(int[])", s -> s.legalMoves(moves));
+        benchmarks.put("legalMoves()", s -> s.legalMoves().size());
+        benchmarks.put("insertToken", s -> {
+            int n = s.legalMoves(moves);
+            if(n == 0) return 0;
+            GameState copy = new GameState(s);
+            return copy.insertToken(s.position(moves[0])) ? 1 : 0;
+        });
+        benchmarks.put("makeMove+undoMove", s -> {
+            int n = s.legalMoves(moves);
+            for(int i = 0; i < n; i++) s.undoMove(s.makeMove(moves[i]));
+            return n;
+        });
+        benchmarks.put("isFinished", s -> s.isFinished() ? 1 : 0);
+        benchmarks.put("countTokens", s -> s.countTokens()[0]);
+        benchmarks.put("PatternEvaluator.evaluate", s -> patterns.evaluate(s, 1));
+        benchmarks.put("EdgeEvaluator.evaluate", s -> edges.evaluate(s, 1));
+        benchmarks.put("HMINIMAX.decision(depth " + SEARCH_DEPTH + ")", s -> {
+            engine.getTable().clear();
+            Position p = engine.decision(s);
+            return p == null ? 0 : p.col;
+        });
+
+        for(Map.Entry<String, ToLongFunction<GameState>> b : benchmarks.entrySet()) {
+            for(Map.Entry<String, GameState[]> c : corpus.entrySet()) {
+                String name = b.getKey() + " " + c.getKey();
+                if(name.contains(filter)) run(name, b.getValue(), c.getValue(), iterations);
+            }
+        }
+        scaling(filter, iterations);
+    }
+
+    /**
+     * Benchmarks of move generation, making moves and random playouts on every even board size
+     * from MIN_SCALING_SIZE to MAX_SCALING_SIZE, on midgame positions (half of the squares empty).
+     */
+    private static void scaling(String filter, int iterations) {
+        int[] moves = new int[MAX_SCALING_SIZE * MAX_SCALING_SIZE];
+        int[] undo = new int[MAX_SCALING_SIZE * MAX_SCALING_SIZE];
+        Random random = new Random(0);
+        Map<String, ToLongFunction<GameState>> benchmarks = new LinkedHashMap<>();
+        benchmarks.put("legalMoves(int[])", s -> s.legalMoves(moves));
+        benchmarks.put("makeMove+undoMove", s -> {
+            int n = s.legalMoves(moves);
+            for(int i = 0; i < n; i++) s.undoMove(s.makeMove(moves[i]));
+            return n;
+        });
+        benchmarks.put("playout", s -> { // random moves to the end of the game, taken back again
+            int player = s.getPlayerInTurn();
+            int made = 0;
+            while(true) {
+                int n = s.legalMoves(moves);
+                if(n == 0) {
+                    if(!s.opponentCanMove()) break;
+                    s.changePlayer();
+                    n = s.legalMoves(moves);
+                }
+                undo[made++] = s.makeMove(moves[random.nextInt(n)]);
+            }
+            for(int i = made - 1; i >= 0; i--) s.undoMove(undo[i]);
+            if(s.getPlayerInTurn() != player) s.changePlayer(); // the playout started with a pass
+            return made;
+        });
+        for(int size = MIN_SCALING_SIZE; size <= MAX_SCALING_SIZE; size += 2) {
+            String corpus = size + "x" + size;
+            GameState[] positions = null;
+            for(Map.Entry<String, ToLongFunction<GameState>> b : benchmarks.entrySet()) {
+                String name = "scaling " + b.getKey() + " " + corpus;
+                if(!name.contains(filter)) continue;
+                if(positions == null) positions = positions(size, size * size / 2, 3000L + size);
+                run(name, b.getValue(), positions, iterations);
+            }
+        }
+    }
+
+    /**
+     * Returns the given number of positions with the given number of empty squares, from random
+     * games with the given seed. Games that end earlier are replaced by new ones.
+     */
+    static GameState[] positions(int size, int empties, long seed) {
+        Random random = new Random(seed);
+        GameState[] positions = new GameState[POSITIONS_PER_PHASE];
+        int[] moves = new int[size*size];
+        for(int i = 0; i < positions.length; ) {
+            GameState s = new GameState(size, 1);
+            while(s.getEmptyCount() > empties && !s.isFinished()) {
+                int n = s.legalMoves(moves);
+                if(n == 0) s.changePlayer();
+                else s.makeMove(moves[random.nextInt(n)]);
+            }
+            if(!s.isFinished()) positions[i++] = new GameState(s);
+        }
+        return positions;
+    }
+
+    private static void run(String name, ToLongFunction<GameState> op, GameState[] positions, int iterations) {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for(int i = 0; i < WARMUP_ITERATIONS; i++) iteration(op, positions);
+
+        List<Double> throughput = new ArrayList<>();
+        long ops = 0;
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long[] gc = gcCountAndTime();
+        for(int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            long n = iteration(op, positions);
+            throughput.add(n * 1e9 / (System.nanoTime() - start));
+            ops += n;
+        }
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        long[] gcAfter = gcCountAndTime();
+
+        double mean = throughput.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        double sd = Math.sqrt(throughput.stream().mapToDouble(t -> (t - mean) * (t - mean)).sum() / Math.max(1, iterations - 1));
+        System.out.printf("%-45s %14.1f ops/s +- %-12.1f %10.1f B/op  gc %d (%d ms)%n", name, mean, sd,
+                (double) allocated / ops, gcAfter[0] - gc[0], gcAfter[1] - gc[1]);
+    }
+
+    /**
+     * Runs the operation on the positions in turn for about ITERATION_NANOS.
+     * @return the number of operations
+     */
+    private static long iteration(ToLongFunction<GameState> op, GameState[] positions) {
+        long end = System.nanoTime() + ITERATION_NANOS;
+        long n = 0, result = 0;
+        do {
+            for(GameState s : positions) result += op.applyAsLong(s);
+            n += positions.length;
+        } while(System.nanoTime() < end);
+        sink += result;
+        return n;
+    }
+
+    private static long[] gcCountAndTime() {
+        long count = 0, time = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, time};
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Bitboard representation of an Othello board. Square (col, row) is bit number col*size + row,
+ * so visiting the set bits from the lowest one gives the squares in the same order as a nested
+ * loop over columns and then rows.
+ * Boards with at most 64 squares are stored in one long per player (BitBoard64), bigger boards
+ * in an array of longs per player (BitBoardWide). Legal moves and flips are found by shifting
+ * the players' bitboards in all 8 directions at once instead of walking every ray square by square.
+ */
+public abstract class BitBoard {
+    // the 8 directions as steps in columns and rows, in the order the shift tables use
+    static final int[] DELTA_COL = {-1, -1, -1, 0, 0, 1, 1, 1};
+    static final int[] DELTA_ROW = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    protected final int size;
+
+    protected BitBoard(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Returns an empty bitboard for a board with the given number of columns and rows.
+     */
+    public static BitBoard create(int size) {
+        if(size * size <= 64) return new BitBoard64(size);
+        return new BitBoardWide(size);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the token at the given square: 0 (empty), 1 (black) or 2 (white).
+     */
+    public abstract int get(int sq);
+
+    /**
+     * Puts the given token, 0 (empty), 1 (black) or 2 (white), at the given square without
+     * turning any other tokens.
+     */
+    public abstract void set(int sq, int player);
+
+    /**
+     * Returns the number of tokens of the given player.
+     */
+    public abstract int count(int player);
+
+    /**
+     * Returns true if the given player can put a token anywhere on the board.
+     */
+    public abstract boolean hasLegalMove(int player);
+
+    /**
+     * Writes the squares where the given player can legally put a token to out, in increasing
+     * order and each square only once.
+     * @param out buffer of at least size*size entries
+     * @return the number of squares written
+     */
+    public abstract int legalMoves(int player, int[] out);
+
+    /**
+     * Returns the number of squares where the given player can legally put a token.
+     */
+    public abstract int mobility(int player);
+
+    /**
+     * Returns the number of tokens of the given player that are next to an empty square in any
+     * of the 8 directions (frontier tokens, which usually give the opponent moves).
+     */
+    public abstract int frontier(int player);
+
+    /**
+     * Puts a token for the given player at the given square and turns all captured opponent tokens.
+     * Nothing is changed if the move does not capture anything.
+     * @return the number of turned tokens, 0 if the move is not legal
+     */
+    public abstract int move(int sq, int player);
+
+    /**
+     * Same as move, but remembers the turned tokens so that the move can be taken back with unmake.
+     * Moves are taken back in the reverse order in which they were made.
+     * @return the number of turned tokens, 0 if the move is not legal (then nothing is remembered)
+     */
+    public abstract int make(int sq, int player);
+
+    /**
+     * Takes back the latest move made with make, which put a token for the given player at sq.
+     */
+    public abstract void unmake(int sq, int player);
+
+    /**
+     * Writes the squares of the tokens turned by the latest move made with make to out.
+     * @return the number of squares written
+     */
+    public abstract int lastFlips(int[] out);
+
+    /**
+     * Returns a copy of this bitboard which can be changed independently of this one.
+     * Moves made on this bitboard cannot be taken back on the copy.
+     */
+    public abstract BitBoard copy();
+
+    /**
+     * Sets the tokens of this bitboard to those of the given one, which has the same size.
+     * Moves made on this bitboard before can no longer be taken back.
+     */
+    public abstract void copyFrom(BitBoard other);
+
+    /**
+     * Returns true if a step in direction d can end at the given square, i.e. if the square's
+     * neighbour in the opposite direction is on the board.
+     */
+    static boolean hasSource(int size, int col, int row, int d) {
+        int c = col - DELTA_COL[d];
+        int r = row - DELTA_ROW[d];
+        return 0 <= c && c < size && 0 <= r && r < size;
+    }
+}
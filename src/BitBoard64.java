@@ -0,0 +1,229 @@
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Bitboard for boards of at most 64 squares (8x8 and smaller), using one long per player.
+ * A step in a direction is a rotation of the long followed by a mask of the squares the step
+ * can end at, which also removes the bits that wrapped around.
+ */
+public final class BitBoard64 extends BitBoard {
+    // per board size: rotation distance and destination mask for each direction, and all squares
+    private static final int[][] SHIFTS = new int[9][];
+    private static final long[][] MASKS = new long[9][];
+    private static final long[] FULL = new long[9];
+
+    static {
+        for(int n = 1; n <= 8; n++) {
+            SHIFTS[n] = new int[8];
+            MASKS[n] = new long[8];
+            FULL[n] = n == 8 ? -1L : (1L << (n * n)) - 1;
+            for(int d = 0; d < 8; d++) {
+                SHIFTS[n][d] = BitBoard.DELTA_COL[d] * n + BitBoard.DELTA_ROW[d];
+                for(int c = 0; c < n; c++) {
+                    for(int r = 0; r < n; r++) {
+                        if(BitBoard.hasSource(n, c, r, d)) MASKS[n][d] |= 1L << (c * n + r);
+                    }
+                }
+            }
+        }
+    }
+
+    private final int[] shifts;
+    private final long[] masks;
+    private final long full;
+    long black;
+    long white;
+    // masks of the tokens turned by the moves made with make, latest on top
+    private final long[] undoFlips;
+    private int undoTop;
+
+    BitBoard64(int size) {
+        super(size);
+        shifts = SHIFTS[size];
+        masks = MASKS[size];
+        full = FULL[size];
+        undoFlips = new long[size * size + 1];
+    }
+
+    public long getBlack() {
+        return black;
+    }
+
+    public long getWhite() {
+        return white;
+    }
+
+    public int get(int sq) {
+        long bit = 1L << sq;
+        if((black & bit) != 0) return 1;
+        if((white & bit) != 0) return 2;
+        return 0;
+    }
+
+    public void set(int sq, int player) {
+        long bit = 1L << sq;
+        black &= ~bit;
+        white &= ~bit;
+        if(player == 1) black |= bit;
+        else if(player == 2) white |= bit;
+    }
+
+    public int count(int player) {
+        return Long.bitCount(player == 1 ? black : white);
+    }
+
+    public boolean hasLegalMove(int player) {
+        return moveMask(player) != 0;
+    }
+
+    public int legalMoves(int player, int[] out) {
+        long moves = moveMask(player);
+        int n = 0;
+        while(moves != 0) {
+            out[n++] = Long.numberOfTrailingZeros(moves);
+            moves &= moves - 1;
+        }
+        return n;
+    }
+
+    public int mobility(int player) {
+        return Long.bitCount(moveMask(player));
+    }
+
+    public int frontier(int player) {
+        long empty = ~(black | white) & full;
+        long next = 0;
+        for(int d = 0; d < 8; d++) next |= Long.rotateLeft(empty, shifts[d]) & masks[d];
+        return Long.bitCount(next & (player == 1 ? black : white));
+    }
+
+    /**
+     * Returns the mask of all squares where the given player can legally put a token.
+     */
+    public long moveMask(int player) {
+        return player == 1 ? moves(black, white) : moves(white, black);
+    }
+
+    /**
+     * Returns the mask of the opponent tokens turned if the given player puts a token at sq,
+     * 0 if the move is not legal.
+     */
+    public long flips(int sq, int player) {
+        if(((black | white) & (1L << sq)) != 0) return 0;
+        return player == 1 ? flips(black, white, sq) : flips(white, black, sq);
+    }
+
+    public int move(int sq, int player) {
+        long flips = flips(sq, player);
+        if(flips == 0) return 0;
+
+        apply(sq, player, flips);
+        return Long.bitCount(flips);
+    }
+
+    public int make(int sq, int player) {
+        long flips = flips(sq, player);
+        if(flips == 0) return 0;
+
+        apply(sq, player, flips);
+        undoFlips[undoTop++] = flips;
+        return Long.bitCount(flips);
+    }
+
+    public void unmake(int sq, int player) {
+        long flips = undoFlips[--undoTop];
+        long bit = 1L << sq;
+        if(player == 1) {
+            black &= ~(flips | bit);
+            white |= flips;
+        } else {
+            white &= ~(flips | bit);
+            black |= flips;
+        }
+    }
+
+    /**
+     * Returns the mask of the tokens turned by the latest move made with make.
+     */
+    public long lastFlipMask() {
+        return undoFlips[undoTop - 1];
+    }
+
+    public int lastFlips(int[] out) {
+        long bits = undoFlips[undoTop - 1];
+        int n = 0;
+        while(bits != 0) {
+            out[n++] = Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+        }
+        return n;
+    }
+
+    private void apply(int sq, int player, long flips) {
+        long bit = 1L << sq;
+        if(player == 1) {
+            black |= flips | bit;
+            white &= ~flips;
+        } else {
+            white |= flips | bit;
+            black &= ~flips;
+        }
+    }
+
+    public BitBoard copy() {
+        BitBoard64 b = new BitBoard64(size);
+        b.black = black;
+        b.white = white;
+        return b;
+    }
+
+    public void copyFrom(BitBoard other) {
+        BitBoard64 b = (BitBoard64) other;
+        black = b.black;
+        white = b.white;
+        undoTop = 0;
+    }
+
+    /**
+     * Parallel-prefix (Kogge-Stone) fill: for each direction, extend the own tokens over runs of
+     * up to 7 opponent tokens in 3 steps, and a square is a legal move if one more step from the
+     * run lands on it and it is empty.
+     */
+    private long moves(long own, long opp) {
+        long moves = 0;
+        for(int d = 0; d < 8; d++) {
+            int s = shifts[d];
+            long mask = masks[d];
+            long pr = opp & mask;
+            long g = own;
+            g |= pr & Long.rotateLeft(g, s);
+            pr &= Long.rotateLeft(pr, s);
+            g |= pr & Long.rotateLeft(g, 2 * s);
+            pr &= Long.rotateLeft(pr, 2 * s);
+            g |= pr & Long.rotateLeft(g, 4 * s);
+            moves |= Long.rotateLeft(g & ~own, s) & mask;
+        }
+        return moves & ~(own | opp) & full;
+    }
+
+    /**
+     * Same fill as in moves, but starting from the square of the move; a run of opponent tokens
+     * is turned if the step after the run lands on an own token.
+     */
+    private long flips(long own, long opp, int sq) {
+        long start = 1L << sq;
+        long flips = 0;
+        for(int d = 0; d < 8; d++) {
+            int s = shifts[d];
+            long mask = masks[d];
+            long pr = opp & mask;
+            long g = start;
+            g |= pr & Long.rotateLeft(g, s);
+            pr &= Long.rotateLeft(pr, s);
+            g |= pr & Long.rotateLeft(g, 2 * s);
+            pr &= Long.rotateLeft(pr, 2 * s);
+            g |= pr & Long.rotateLeft(g, 4 * s);
+            if((Long.rotateLeft(g, s) & mask & own) != 0) flips |= g & ~start;
+        }
+        return flips;
+    }
+}
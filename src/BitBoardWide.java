@@ -0,0 +1,269 @@
+import java.util.Arrays;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Bitboard for boards of more than 64 squares, using an array of longs per player. A step in a
+ * direction shifts the whole array by the same number of bits and masks the squares the step can
+ * end at; one step in all directions gives the neighbors of a set of squares at once (e.g. the
+ * empty squares next to an opponent token, which are the only candidate moves). Legality and
+ * flips are then found by walking the rays of single squares from the precomputed tables (see
+ * BoardTables), without bounds checks, which on large boards is much cheaper than filling the
+ * whole array in every direction as BitBoard64 does.
+ */
+public final class BitBoardWide extends BitBoard {
+    private final BoardTables tables;
+    private final int words;
+    private final int[] shifts;
+    private final long[][] masks;
+    private final long[] full;
+    private final int[] rays;
+    private final int[] rayStart;
+    private final long[] neighbors;
+    final long[] black;
+    final long[] white;
+    // masks of the tokens turned by the moves made with make, one block of words per move
+    private final long[] undoFlips;
+    private int undoTop;
+
+    // scratch arrays, so that move generation does not allocate
+    private final long[] gen, tmp, acc;
+
+    BitBoardWide(int size) {
+        this(BoardTables.forSize(size));
+    }
+
+    private BitBoardWide(BoardTables tables) {
+        super(tables.size);
+        this.tables = tables;
+        words = tables.words;
+        shifts = tables.shifts;
+        masks = tables.masks;
+        full = tables.full;
+        rays = tables.rays;
+        rayStart = tables.rayStart;
+        neighbors = tables.neighbors;
+        black = new long[words];
+        white = new long[words];
+        gen = new long[words];
+        tmp = new long[words];
+        acc = new long[words];
+        undoFlips = new long[words * (size * size + 1)];
+    }
+
+    public int get(int sq) {
+        long bit = 1L << sq;
+        if((black[sq >>> 6] & bit) != 0) return 1;
+        if((white[sq >>> 6] & bit) != 0) return 2;
+        return 0;
+    }
+
+    public void set(int sq, int player) {
+        int w = sq >>> 6;
+        long bit = 1L << sq;
+        black[w] &= ~bit;
+        white[w] &= ~bit;
+        if(player == 1) black[w] |= bit;
+        else if(player == 2) white[w] |= bit;
+    }
+
+    public int count(int player) {
+        long[] own = player == 1 ? black : white;
+        int n = 0;
+        for(long w : own) n += Long.bitCount(w);
+        return n;
+    }
+
+    public boolean hasLegalMove(int player) {
+        return moves(player, acc, true);
+    }
+
+    public int legalMoves(int player, int[] out) {
+        moves(player, acc, false);
+        int n = 0;
+        for(int w = 0; w < words; w++) {
+            long bits = acc[w];
+            while(bits != 0) {
+                out[n++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return n;
+    }
+
+    public int mobility(int player) {
+        moves(player, acc, false);
+        int n = 0;
+        for(long w : acc) n += Long.bitCount(w);
+        return n;
+    }
+
+    public int frontier(int player) {
+        long[] own = player == 1 ? black : white;
+        for(int w = 0; w < words; w++) gen[w] = ~(black[w] | white[w]) & full[w];
+        Arrays.fill(acc, 0);
+        for(int d = 0; d < 8; d++) {
+            shift(gen, shifts[d], tmp);
+            for(int w = 0; w < words; w++) acc[w] |= tmp[w] & masks[d][w];
+        }
+        int n = 0;
+        for(int w = 0; w < words; w++) n += Long.bitCount(acc[w] & own[w]);
+        return n;
+    }
+
+    public int move(int sq, int player) {
+        if(get(sq) != 0) return 0;
+        long[] own = player == 1 ? black : white;
+        long[] opp = player == 1 ? white : black;
+
+        int flipped = flips(own, opp, sq, acc);
+        if(flipped == 0) return 0;
+
+        for(int w = 0; w < words; w++) {
+            own[w] |= acc[w];
+            opp[w] &= ~acc[w];
+        }
+        own[sq >>> 6] |= 1L << sq;
+        return flipped;
+    }
+
+    public int make(int sq, int player) {
+        int flipped = move(sq, player);
+        if(flipped == 0) return 0;
+
+        System.arraycopy(acc, 0, undoFlips, undoTop, words);
+        undoTop += words;
+        return flipped;
+    }
+
+    public void unmake(int sq, int player) {
+        long[] own = player == 1 ? black : white;
+        long[] opp = player == 1 ? white : black;
+
+        undoTop -= words;
+        for(int w = 0; w < words; w++) {
+            long flips = undoFlips[undoTop + w];
+            own[w] &= ~flips;
+            opp[w] |= flips;
+        }
+        own[sq >>> 6] &= ~(1L << sq);
+    }
+
+    public int lastFlips(int[] out) {
+        int n = 0;
+        int base = undoTop - words;
+        for(int w = 0; w < words; w++) {
+            long bits = undoFlips[base + w];
+            while(bits != 0) {
+                out[n++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return n;
+    }
+
+    public BitBoard copy() {
+        BitBoardWide b = new BitBoardWide(tables);
+        System.arraycopy(black, 0, b.black, 0, words);
+        System.arraycopy(white, 0, b.white, 0, words);
+        return b;
+    }
+
+    public void copyFrom(BitBoard other) {
+        BitBoardWide b = (BitBoardWide) other;
+        System.arraycopy(b.black, 0, black, 0, words);
+        System.arraycopy(b.white, 0, white, 0, words);
+        undoTop = 0;
+    }
+
+    /**
+     * Writes the mask of all legal moves for the given player to out. Only empty squares next to
+     * an opponent token can be legal, so those are found with one step in every direction, and
+     * then the rays of each of them are walked until one ends in an own token.
+     * @param first whether to stop at the first legal move found
+     * @return whether there is a legal move
+     */
+    private boolean moves(int player, long[] out, boolean first) {
+        long[] own = player == 1 ? black : white;
+        long[] opp = player == 1 ? white : black;
+        boolean found = false;
+        Arrays.fill(gen, 0);
+        for(int d = 0; d < 8; d++) {
+            shift(opp, shifts[d], tmp);
+            long[] mask = masks[d];
+            for(int w = 0; w < words; w++) gen[w] |= tmp[w] & mask[w];
+        }
+
+        for(int w = 0; w < words; w++) {
+            out[w] = 0;
+            long candidates = gen[w] & ~(own[w] | opp[w]) & full[w];
+            while(candidates != 0) {
+                int sq = (w << 6) + Long.numberOfTrailingZeros(candidates);
+                candidates &= candidates - 1;
+                for(int d = sq * 8, end = d + 8; d < end; d++) {
+                    int from = rayStart[d], to = rayStart[d + 1];
+                    int i = from;
+                    while(i < to && (opp[rays[i] >>> 6] & 1L << rays[i]) != 0) i++;
+                    if(i > from && i < to && (own[rays[i] >>> 6] & 1L << rays[i]) != 0) {
+                        if(first) return true;
+                        out[w] |= 1L << sq;
+                        found = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Writes the mask of the opponent tokens turned by a move at sq to out, walking the rays of
+     * sq from the tables. A square without opponent neighbors is rejected at once.
+     * @return the number of turned tokens
+     */
+    private int flips(long[] own, long[] opp, int sq, long[] out) {
+        Arrays.fill(out, 0);
+        int nb = sq * words;
+        boolean adjacent = false;
+        for(int w = 0; w < words; w++) {
+            if((neighbors[nb + w] & opp[w]) != 0) adjacent = true;
+        }
+        if(!adjacent) return 0;
+
+        int flipped = 0;
+        for(int d = sq * 8, end = d + 8; d < end; d++) {
+            int from = rayStart[d], to = rayStart[d + 1];
+            int i = from;
+            while(i < to && (opp[rays[i] >>> 6] & 1L << rays[i]) != 0) i++;
+            if(i == from || i == to || (own[rays[i] >>> 6] & 1L << rays[i]) == 0) continue;
+            for(int k = from; k < i; k++) out[rays[k] >>> 6] |= 1L << rays[k];
+            flipped += i - from;
+        }
+        return flipped;
+    }
+
+    /**
+     * Shifts the bits of src by s positions (towards higher squares if s > 0) into dst.
+     * Bits shifted beyond either end of the array are dropped.
+     */
+    private void shift(long[] src, int s, long[] dst) {
+        if(s >= 0) {
+            int ws = s >>> 6, bs = s & 63;
+            for(int w = words - 1; w >= 0; w--) {
+                int from = w - ws;
+                long v = from >= 0 ? src[from] << bs : 0;
+                if(bs != 0 && from - 1 >= 0) v |= src[from - 1] >>> (64 - bs);
+                dst[w] = v;
+            }
+        } else {
+            s = -s;
+            int ws = s >>> 6, bs = s & 63;
+            for(int w = 0; w < words; w++) {
+                int from = w + ws;
+                long v = from < words ? src[from] >>> bs : 0;
+                if(bs != 0 && from + 1 < words) v |= src[from + 1] << (64 - bs);
+                dst[w] = v;
+            }
+        }
+    }
+}
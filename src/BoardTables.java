@@ -0,0 +1,86 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Lookup tables of the board geometry for BitBoardWide, so that no step on the board needs a
+ * bounds check: for every square and direction the squares of the ray from it to the edge, and for
+ * every square the mask of its neighbors. Also the shift and destination masks of the fills.
+ * The tables are created once per size and shared by all boards of that size.
+ */
+public final class BoardTables {
+    private static final ConcurrentHashMap<Integer, BoardTables> TABLES = new ConcurrentHashMap<>();
+
+    final int size;
+    // the number of longs of a bitboard
+    final int words;
+    // the squares of the ray from square sq in direction d (not including sq) are
+    // rays[rayStart[sq*8 + d]] up to (not including) rays[rayStart[sq*8 + d + 1]], nearest first
+    final int[] rays;
+    final int[] rayStart;
+    // the mask of the neighbors of square sq is neighbors[sq*words] to neighbors[sq*words + words-1]
+    final long[] neighbors;
+    // per direction: the shift of a step and the mask of the squares a step can end at
+    final int[] shifts;
+    final long[][] masks;
+    // all squares of the board
+    final long[] full;
+
+    private BoardTables(int size) {
+        this.size = size;
+        int squares = size * size;
+        words = (squares + 63) >>> 6;
+        rayStart = new int[squares * 8 + 1];
+        neighbors = new long[squares * words];
+        shifts = new int[8];
+        masks = new long[8][words];
+        full = new long[words];
+
+        int length = 0;
+        for(int sq = 0; sq < squares; sq++) {
+            for(int d = 0; d < 8; d++) length += rayLength(sq, d);
+        }
+        rays = new int[length];
+        int i = 0;
+        for(int c = 0; c < size; c++) {
+            for(int r = 0; r < size; r++) {
+                int sq = c * size + r;
+                full[sq >>> 6] |= 1L << sq;
+                for(int d = 0; d < 8; d++) {
+                    rayStart[sq * 8 + d] = i;
+                    for(int k = 1; k <= rayLength(sq, d); k++) {
+                        int to = (c + k * BitBoard.DELTA_COL[d]) * size + r + k * BitBoard.DELTA_ROW[d];
+                        rays[i++] = to;
+                        if(k == 1) neighbors[sq * words + (to >>> 6)] |= 1L << to;
+                    }
+                }
+            }
+        }
+        rayStart[squares * 8] = i;
+
+        for(int d = 0; d < 8; d++) {
+            shifts[d] = BitBoard.DELTA_COL[d] * size + BitBoard.DELTA_ROW[d];
+            for(int c = 0; c < size; c++) {
+                for(int r = 0; r < size; r++) {
+                    int sq = c * size + r;
+                    if(BitBoard.hasSource(size, c, r, d)) masks[d][sq >>> 6] |= 1L << sq;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the tables for boards with the given number of columns and rows.
+     */
+    public static BoardTables forSize(int size) {
+        return TABLES.computeIfAbsent(size, BoardTables::new);
+    }
+
+    private int rayLength(int sq, int d) {
+        int c = sq / size, r = sq % size;
+        int n = 0;
+        for(c += BitBoard.DELTA_COL[d], r += BitBoard.DELTA_ROW[d]; 0 <= c && c < size && 0 <= r && r < size;
+            c += BitBoard.DELTA_COL[d], r += BitBoard.DELTA_ROW[d]) n++;
+        return n;
+    }
+}
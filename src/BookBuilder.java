@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Builds and grows opening books (see OpeningBook) from games:
+ *   java BookBuilder book.bin [games] [size] [plies] [depth] [threads]
+ * plays the given number of games of HMINIMAX against itself at the given depth and adds their
+ * first plies to the book, which is created or, if the file exists, grown. In the book plies a
+ * random move is played now and then instead of the searched one, so that the games spread over
+ * the openings. Arena adds its games to the book named by the system property othello.arena.book.
+ */
+public class BookBuilder {
+    public static final int DEFAULT_GAMES = 100;
+    public static final int DEFAULT_PLIES = 12;
+    public static final int DEFAULT_DEPTH = 4;
+    // the probability of a random move in the book plies of self-play games
+    public static final double EXPLORATION = 0.25;
+
+    private final int size;
+    private final int plies;
+    // canonical hash of a position to {games, sum of results}
+    private final Map<Long, int[]> entries = new HashMap<>();
+
+    /**
+     * @param size the board size of the book
+     * @param plies the number of plies of each game that are added to the book
+     */
+    public BookBuilder(int size, int plies) {
+        this.size = size;
+        this.plies = plies;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1) {
+            System.err.println("Usage: java BookBuilder book.bin [games] [size] [plies] [depth] [threads]");
+            System.exit(1);
+        }
+        Path file = Paths.get(args[0]);
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_GAMES;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int plies = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PLIES;
+        int depth = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_DEPTH;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+
+        BookBuilder builder = new BookBuilder(size, plies);
+        if(Files.exists(file)) builder.load(file);
+        int before = builder.getEntryCount();
+        long start = System.nanoTime();
+        builder.selfPlay(games, depth, threads, System.nanoTime());
+        builder.save(file);
+        System.out.printf("%d games in %.1f s, %d positions (%d new) in %s%n", games,
+                (System.nanoTime() - start) / 1e9, builder.getEntryCount(), builder.getEntryCount() - before, file);
+    }
+
+    /**
+     * Adds the entries of the given book file.
+     * @throws IOException if it cannot be read or is for another board size
+     */
+    public void load(Path file) throws IOException {
+        OpeningBook book = OpeningBook.open(file);
+        if(book.getSize() != size) throw new IOException("Opening book " + file + " is for size " + book.getSize());
+        synchronized(this) {
+            book.forEach((key, games, score) -> add(key, games, score));
+        }
+    }
+
+    public synchronized void save(Path file) throws IOException {
+        OpeningBook.write(file, size, entries);
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Adds a game from the usual start position, given by the squares of its moves (without passes).
+     * @throws IllegalArgumentException if a move is illegal
+     */
+    public void addGame(List<Integer> moves) {
+        // the final result first, then the positions with the result of the player who moved into them
+        GameState s = new GameState(size, 1);
+        for(int move : moves) play(s, move);
+        int[] tokens = s.countTokens();
+        int blackResult = tokens[0] - tokens[1];
+
+        s = new GameState(size, 1);
+        long[] keys = new long[Math.min(plies, moves.size())];
+        int[] results = new int[keys.length];
+        for(int i = 0; i < keys.length; i++) {
+            int player = play(s, moves.get(i));
+            keys[i] = OpeningBook.canonicalHash(s);
+            results[i] = player == 1 ? blackResult : -blackResult;
+        }
+        synchronized(this) {
+            for(int i = 0; i < keys.length; i++) add(keys[i], 1, results[i]);
+        }
+    }
+
+    /**
+     * Plays the move, after a pass if the player in turn cannot move.
+     * @return the player who made the move
+     */
+    private static int play(GameState s, int move) {
+        if(s.legalMoves().isEmpty()) s.changePlayer();
+        int player = s.getPlayerInTurn();
+        if(!s.insertToken(s.position(move))) throw new IllegalArgumentException("Illegal move " + s.position(move));
+        return player;
+    }
+
+    private void add(long key, int games, int score) {
+        int[] e = entries.computeIfAbsent(key, k -> new int[2]);
+        if((long) e[0] + games > Integer.MAX_VALUE || Math.abs((long) e[1] + score) > Integer.MAX_VALUE) {
+            e[0] /= 2; // keep the average when the sums would overflow
+            e[1] /= 2;
+        }
+        e[0] += games;
+        e[1] += score;
+    }
+
+    /**
+     * Plays the given number of games of HMINIMAX at the given depth against itself, in parallel
+     * with the given number of threads, and adds them to the book.
+     */
+    public void selfPlay(int games, int depth, int threads, long seed) throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for(int g = 0; g < games; g++) {
+                Random random = new Random(seed + g);
+                tasks.add(pool.submit(() -> addGame(selfPlayGame(depth, random))));
+            }
+            for(Future<?> task : tasks) task.get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private List<Integer> selfPlayGame(int depth, Random random) {
+        HMINIMAX engine = new HMINIMAX();
+        engine.setDepth(depth);
+        engine.setTableSize(4L << 20);
+        List<Integer> moves = new ArrayList<>();
+        GameState s = new GameState(size, 1);
+        int[] legal = new int[size*size];
+        while(!s.isFinished()) {
+            int count = s.legalMoves(legal);
+            if(count == 0) {
+                s.changePlayer();
+                continue;
+            }
+            int move;
+            if(moves.size() < plies && random.nextDouble() < EXPLORATION) {
+                move = legal[random.nextInt(count)];
+            } else {
+                Position p = engine.decision(s);
+                move = s.square(p.col, p.row);
+            }
+            s.makeMove(move);
+            moves.add(move);
+        }
+        return moves;
+    }
+}
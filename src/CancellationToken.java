@@ -0,0 +1,74 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Asks an asynchronous decision (see IAsyncOthelloAI) to stop. It can be cancelled by hand (e.g.
+ * from a button on the event dispatch thread) or after a timeout, and runs the callbacks that the
+ * decision registered when it is cancelled. A token can only be cancelled once, and is meant for
+ * one decision.
+ */
+public final class CancellationToken {
+    private volatile boolean cancelled;
+    private final List<Runnable> callbacks = new ArrayList<>();
+    // the timer of cancelAfter, null if none
+    private ScheduledFuture<?> timer;
+
+    /**
+     * Cancels the token and runs the callbacks, on the calling thread. Later calls do nothing.
+     */
+    public void cancel() {
+        List<Runnable> run;
+        synchronized(this) {
+            if(cancelled) return;
+            cancelled = true;
+            run = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        for(Runnable r : run) r.run();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Runs the callback when the token is cancelled, or at once if it already is. The callback
+     * should return quickly, since it may run on the event dispatch thread.
+     */
+    public void onCancel(Runnable callback) {
+        synchronized(this) {
+            if(!cancelled) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /**
+     * Cancels the token after the given time, on the timer thread of AsyncAI.
+     * @return this token
+     */
+    public CancellationToken cancelAfter(Duration timeout) {
+        ScheduledFuture<?> t = AsyncAI.timer().schedule(this::cancel, timeout.toNanos(), TimeUnit.NANOSECONDS);
+        synchronized(this) {
+            disarm();
+            timer = t;
+        }
+        return this;
+    }
+
+    /**
+     * Stops the timer of cancelAfter, if any, without cancelling the token. Called when the
+     * decision is done, so that a late timeout cannot stop a later decision of the same AI.
+     */
+    public synchronized void disarm() {
+        if(timer != null) timer.cancel(false);
+        timer = null;
+    }
+}
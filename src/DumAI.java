@@ -1,5 +1,3 @@
-import java.util.ArrayList;
-
 /**
  * A simple OthelloAI-implementation. The method to decide the next move just
  * returns the first legal move that it finds. 
@@ -12,7 +10,8 @@ public class DumAI implements IOthelloAI {
 	 * Returns first legal move
 	 */
 	public Position decideMove(GameState s) {
-		ArrayList<Position> moves = s.legalMoves();
-		return moves.get(0);
+		int[] moves = new int[s.getSize()*s.getSize()];
+		s.legalMoves(moves);
+		return s.position(moves[0]);
 	}
 }
@@ -0,0 +1,39 @@
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Evaluation based on how many "good" positions, ie. corner and edge positions,
+ * each player holds at this current state.
+ */
+public class EdgeEvaluator implements Evaluator {
+
+    /**
+     * @param s the game state to evaluate
+     * @return the weighted number of valuable positions of player minus those of the other player
+     */
+    public int evaluate(GameState s, int player) {
+        int n = s.getSize();
+        int corner = 4; // just guessing at a weight for corner positions
+        int edge = 2; // just guessing at a weight for edge positions
+
+        // corner positions, positive if player, negative if other, nothing if blank
+        int eval = 0;
+        if(s.getToken(0, 0) != 0) eval += s.getToken(0, 0) == player ? corner : -corner;
+        if(s.getToken(0, n-1) != 0) eval += s.getToken(0, n-1) == player ? corner : -corner;
+        if(s.getToken(n-1, 0) != 0) eval += s.getToken(n-1, 0) == player ? corner : -corner;
+        if(s.getToken(n-1, n-1) != 0) eval += s.getToken(n-1, n-1) == player ? corner : -corner;
+
+        // add values for left and right column, excl. corners
+        for(int i = 1; i < n-1; i++) {
+            if(s.getToken(i, 0) != 0) eval += s.getToken(i, 0) == player ? edge : -edge;
+            if(s.getToken(i, n-1) != 0)eval += s.getToken(i, n-1) == player ? edge : -edge;
+        }
+
+        // add vals for top and bottom row, excl. corners
+        for(int j = 1; j < n-1; j++) {
+            if(s.getToken(0, j) != 0) eval += s.getToken(0, j) == player ? edge : -edge;
+            if(s.getToken(n-1, j) != 0) eval += s.getToken(n-1, j) == player ? edge : -edge;
+        }
+
+        return eval;
+    }
+}
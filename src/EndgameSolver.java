@@ -0,0 +1,393 @@
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Exact solver for endgames: searches to the end of the game, so the move it returns is provably
+ * optimal. It either finds the result (win, loss or draw) or the exact final disc difference,
+ * which is slower since more of the tree has to be searched.
+ * Moves are ordered by the TT move, then by parity (squares in a quadrant with an odd number of
+ * empty squares first, since the player who fills the last square of a region usually keeps it),
+ * and, with many empty squares left, by the number of moves they leave to the opponent.
+ * The last few empty squares are searched directly on the bitboard, without hashing or move lists.
+ */
+public class EndgameSolver {
+    public static final int WIN_LOSS_DRAW = 0;
+    public static final int DISC_DIFFERENCE = 1;
+    public static final long DEFAULT_TABLE_BYTES = 16L << 20;
+
+    // nodes with at most this many empty squares are searched on the bitboard only
+    private static final int FAST_EMPTIES = 4;
+    // results are only stored in the table at nodes with at least this many empty squares
+    private static final int TABLE_EMPTIES = 7;
+    // moves are ordered by the opponent's mobility at nodes with at least this many empty squares
+    private static final int MOBILITY_EMPTIES = 9;
+    // the clock is only read every DEADLINE_CHECK_NODES nodes, which must be a power of two
+    private static final int DEADLINE_CHECK_NODES = 1024;
+    // above any disc difference, and safe to negate
+    private static final int INFINITY = Integer.MAX_VALUE - 1;
+
+    private int mode;
+    private TranspositionTable table;
+    private long nodes;
+
+    // the result of the latest solve
+    private Position move;
+    private int value;
+
+    // the state of the running search; an instance solves one state at a time
+    private GameState s;
+    private BitBoard board;
+    private int size;
+    private int[][] moves;
+    private int[] scores;
+    private int[][] fastSquares;
+    private int[] region;          // the quadrant (0 to 3) of each square
+    private int[] regionEmpties;   // the number of empty squares in each quadrant
+    private int[] priority;
+    private long deadline;
+    // set by stop until reset; volatile, but only read every DEADLINE_CHECK_NODES nodes
+    private volatile boolean stopped;
+    private boolean aborted;
+
+    /**
+     * @param mode WIN_LOSS_DRAW or DISC_DIFFERENCE
+     */
+    public EndgameSolver(int mode) {
+        this(mode, new TranspositionTable(DEFAULT_TABLE_BYTES));
+    }
+
+    /**
+     * Solves with the given table instead of allocating one, e.g. to share it between the solvers
+     * of several engines; the solvers sharing a table must solve in the same mode.
+     */
+    public EndgameSolver(int mode, TranspositionTable table) {
+        this.mode = mode;
+        this.table = table;
+    }
+
+    public void setMode(int mode) {
+        this.mode = mode;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * Replaces the transposition table by an empty one using at most the given number of bytes.
+     */
+    public void setTableSize(long bytes) {
+        table = new TranspositionTable(bytes);
+    }
+
+    /**
+     * Removes all entries from the transposition table.
+     */
+    public void clearTable() {
+        table.clear();
+    }
+
+    /**
+     * Returns the number of nodes visited by the latest solve.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the best move found by the latest successful solve, or null if the player in turn
+     * has to pass.
+     */
+    public Position getMove() {
+        return move;
+    }
+
+    /**
+     * Returns the value of the latest successful solve for the player in turn: the final disc
+     * difference (own minus other tokens) in DISC_DIFFERENCE mode, and 1, 0 or -1 for a win,
+     * draw or loss in WIN_LOSS_DRAW mode.
+     */
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Makes the solve running on another thread give up as soon as it can, as if its deadline
+     * was reached. The stop also holds for the following solves, until reset is called.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Clears a stop, so that the next solve runs until it is done or its deadline is reached.
+     * An engine calls it when its decision starts, before it checks whether it was stopped itself,
+     * so that a stop during the decision is never cleared.
+     */
+    public void reset() {
+        stopped = false;
+    }
+
+    /**
+     * Solves the given state, which is not changed. The result is read with getMove and getValue.
+     * @param deadline the time (System.nanoTime) at which the search is given up
+     * @return true if the state was solved, false if the deadline was reached first
+     */
+    public boolean solve(GameState state, long deadline) {
+        init(state, deadline);
+        table.newSearch();
+
+        int alpha = mode == WIN_LOSS_DRAW ? -1 : -INFINITY;
+        int beta = mode == WIN_LOSS_DRAW ? 1 : INFINITY;
+        int[] legal = moves[0];
+        int count = s.legalMoves(legal);
+        if(count == 0) {
+            int v = solve(alpha, beta, 0);
+            if(aborted) return false;
+            move = null;
+            value = mode == WIN_LOSS_DRAW ? Integer.signum(v) : v;
+            return true;
+        }
+
+        order(legal, count, -1, 0);
+        int best = -INFINITY;
+        int bestMove = legal[0];
+        for(int i = 0; i < count; i++) {
+            int v = searchChild(legal[i], i == 0, alpha, beta, 1);
+            if(aborted) return false;
+            if(v > best) {
+                best = v;
+                bestMove = legal[i];
+            }
+            if(v > alpha) alpha = v;
+            if(alpha >= beta) break;
+        }
+
+        move = state.position(bestMove);
+        value = mode == WIN_LOSS_DRAW ? Integer.signum(best) : best;
+        return true;
+    }
+
+    private void init(GameState state, long deadline) {
+        int n = state.getSize();
+        if(n != size) {
+            size = n;
+            region = new int[n*n];
+            for(int c = 0; c < n; c++)
+                for(int r = 0; r < n; r++)
+                    region[c*n + r] = (c < n/2 ? 0 : 2) + (r < n/2 ? 0 : 1);
+            priority = MoveOrdering.squarePriority(n);
+            scores = new int[n*n];
+        }
+        s = new GameState(state);
+        board = s.getBitBoard();
+        regionEmpties = new int[4];
+        for(int sq = 0; sq < n*n; sq++)
+            if(board.get(sq) == 0) regionEmpties[region[sq]]++;
+
+        // every ply either fills a square or is a pass followed by a move
+        moves = new int[2*s.getEmptyCount() + 3][n*n];
+        fastSquares = new int[FAST_EMPTIES + 1][FAST_EMPTIES];
+        this.deadline = deadline;
+        aborted = false;
+        nodes = 0;
+    }
+
+    /**
+     * Makes the move, searches the child as in Principal Variation Search (the first child with
+     * the full window, the others with a null window and again only if they fail high) and takes
+     * the move back.
+     * @return the value of the child for the player making the move
+     */
+    private int searchChild(int sq, boolean first, int alpha, int beta, int d) {
+        int undo = s.makeMove(sq);
+        regionEmpties[region[sq]]--;
+        int v;
+        if(first) {
+            v = -solve(-beta, -alpha, d);
+        } else {
+            v = -solve(-alpha - 1, -alpha, d);
+            if(v > alpha && v < beta) v = -solve(-beta, -alpha, d);
+        }
+        regionEmpties[region[sq]]++;
+        s.undoMove(undo);
+        return v;
+    }
+
+    /**
+     * Returns the final disc difference for the player in turn with perfect play, searched with
+     * the window alpha..beta. Fail-soft: a value outside the window is a bound on the real value.
+     */
+    private int solve(int alpha, int beta, int d) {
+        if((++nodes & (DEADLINE_CHECK_NODES - 1)) == 0 && (stopped || System.nanoTime() >= deadline)) aborted = true;
+        if(aborted) return 0;
+
+        int empties = s.getEmptyCount();
+        int player = s.getPlayerInTurn();
+        if(empties <= FAST_EMPTIES) {
+            int[] squares = fastSquares[empties];
+            int n = 0;
+            for(int sq = 0; n < empties; sq++)
+                if(board.get(sq) == 0) squares[n++] = sq;
+            return solveFast(alpha, beta, squares, empties, player, false);
+        }
+
+        int[] legal = moves[d];
+        int count = s.legalMoves(legal);
+        if(count == 0) {
+            if(!s.opponentCanMove()) return discDifference(player);
+            s.changePlayer();
+            int v = -solve(-beta, -alpha, d + 1);
+            s.changePlayer();
+            return v;
+        }
+
+        boolean useTable = empties >= TABLE_EMPTIES;
+        int tableMove = -1;
+        if(useTable) {
+            long entry = table.probe(s.getHash());
+            if(entry != 0) {
+                int score = TranspositionTable.score(entry);
+                int bound = TranspositionTable.bound(entry);
+                if(bound == TranspositionTable.EXACT
+                        || bound == TranspositionTable.LOWER && score >= beta
+                        || bound == TranspositionTable.UPPER && score <= alpha)
+                    return score;
+                tableMove = TranspositionTable.move(entry);
+            }
+        }
+
+        order(legal, count, tableMove, d);
+        int alphaOrig = alpha;
+        int v = -INFINITY;
+        int best = -1;
+        for(int i = 0; i < count; i++) {
+            int val = searchChild(legal[i], i == 0, alpha, beta, d + 1);
+            if(aborted) return 0; // the result is not used, and must not be stored
+            if(val > v) {
+                v = val;
+                best = legal[i];
+            }
+            if(v > alpha) alpha = v;
+            if(alpha >= beta) break;
+        }
+
+        if(useTable) {
+            int bound = TranspositionTable.EXACT;
+            if(v <= alphaOrig) bound = TranspositionTable.UPPER;
+            else if(v >= beta) bound = TranspositionTable.LOWER;
+            // every search goes to the end, so the depth of an entry is the number of empty squares
+            table.store(s.getHash(), empties, bound, v, best);
+        }
+        return v;
+    }
+
+    /**
+     * Solves the last few empty squares directly on the bitboard: a move is tried by making it,
+     * which does nothing if it is illegal, so no move lists are generated.
+     * @param squares the empty squares, n of them
+     * @param passed true if the other player just passed
+     */
+    private int solveFast(int alpha, int beta, int[] squares, int n, int player, boolean passed) {
+        nodes++;
+        int other = player == 1 ? 2 : 1;
+        if(n == 0) return discDifference(player);
+        if(n == 1) return solveLast(squares[0], player, other);
+
+        parityOrder(squares, n);
+        int[] rest = fastSquares[n - 1];
+        int v = -INFINITY;
+        for(int i = 0; i < n; i++) {
+            int sq = squares[i];
+            if(board.make(sq, player) == 0) continue;
+            for(int j = 0, k = 0; j < n; j++)
+                if(j != i) rest[k++] = squares[j];
+            int val = -solveFast(-beta, -alpha, rest, n - 1, other, false);
+            board.unmake(sq, player);
+            if(val > v) v = val;
+            if(v > alpha) alpha = v;
+            if(alpha >= beta) break;
+        }
+
+        if(v == -INFINITY) { // no legal move
+            if(passed) return discDifference(player);
+            return -solveFast(-beta, -alpha, squares, n, other, true);
+        }
+        return v;
+    }
+
+    /**
+     * Returns the final disc difference for player when only the given square is empty.
+     */
+    private int solveLast(int sq, int player, int other) {
+        nodes++;
+        if(board.make(sq, player) > 0) {
+            int v = discDifference(player);
+            board.unmake(sq, player);
+            return v;
+        }
+        if(board.make(sq, other) > 0) {
+            int v = discDifference(player);
+            board.unmake(sq, other);
+            return v;
+        }
+        return discDifference(player);
+    }
+
+    private int discDifference(int player) {
+        return board.count(player) - board.count(player == 1 ? 2 : 1);
+    }
+
+    /**
+     * Moves the squares in quadrants with an odd number of the given empty squares to the front.
+     */
+    private void parityOrder(int[] squares, int n) {
+        int parity = 0;
+        for(int i = 0; i < n; i++) parity ^= 1 << region[squares[i]];
+        int front = 0;
+        for(int i = 0; i < n; i++) {
+            int sq = squares[i];
+            if((parity >> region[sq] & 1) != 0) {
+                squares[i] = squares[front];
+                squares[front++] = sq;
+            }
+        }
+    }
+
+    /**
+     * Sorts the moves of a node with the TT move first, then by the number of moves they leave
+     * to the opponent (with many empty squares), then by parity and square priority.
+     */
+    private void order(int[] legal, int count, int tableMove, int d) {
+        boolean mobility = s.getEmptyCount() >= MOBILITY_EMPTIES;
+        int opponent = s.getPlayerInTurn() == 1 ? 2 : 1;
+        for(int i = 0; i < count; i++) {
+            int sq = legal[i];
+            if(sq == tableMove) {
+                scores[i] = Integer.MAX_VALUE;
+                continue;
+            }
+            int score = priority[sq];
+            if((regionEmpties[region[sq]] & 1) != 0) score += 16;
+            if(mobility) {
+                int undo = s.makeMove(sq);
+                score -= 32 * board.legalMoves(opponent, moves[d + 1]);
+                s.undoMove(undo);
+            }
+            scores[i] = score;
+        }
+
+        // insertion sort, the lists are short
+        for(int i = 1; i < count; i++) {
+            int m = legal[i];
+            int sc = scores[i];
+            int j = i - 1;
+            while(j >= 0 && scores[j] < sc) {
+                legal[j + 1] = legal[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            legal[j + 1] = m;
+            scores[j + 1] = sc;
+        }
+    }
+}
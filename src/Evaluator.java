@@ -0,0 +1,25 @@
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Evaluation function used by the search at the cutoff depth.
+ */
+public interface Evaluator {
+    // the value of a won game in the searches (plus the disc difference), above any evaluation
+    int WIN = 1_000_000;
+
+    /**
+     * Estimates how good the given (non-terminal) state is for the given player.
+     * @return a positive value if the state is good for player, a negative value if it is good
+     * for the other player, and the negated value for the other player; always less than WIN
+     */
+    int evaluate(GameState s, int player);
+
+    /**
+     * Returns a short name of this evaluation on boards of the given size, which differs for
+     * evaluations whose values do not mean the same (e.g. with other weights), so that stored
+     * search results are only used with the evaluation they were found with.
+     */
+    default String getName(int size) {
+        return getClass().getSimpleName();
+    }
+}
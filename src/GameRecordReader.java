@@ -0,0 +1,239 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Reads a game record file (see GameRecordWriter for the format), which is memory-mapped as it is.
+ * The games are read through a Cursor, which reads the fields of the game it is on straight from
+ * the file, so going through millions of games allocates nothing per game; forEachPosition replays
+ * them on one GameState per game, making the moves in place.
+ * A file of at most 2 GB can be read.
+ */
+public class GameRecordReader implements Closeable {
+    private final ByteBuffer buffer;
+    private final int blockGames;
+    private final long games;
+    // the offset after the last game, and the offsets of the blocks
+    private final long gamesEnd;
+    private final long[] blocks;
+
+    /**
+     * Called for every position of a game, by forEachPosition.
+     */
+    public interface PositionVisitor {
+        /**
+         * @param game the cursor on the game
+         * @param ply the number of moves made so far (passes not counted)
+         * @param s the state; it is changed after the call, so it must not be kept
+         * @param move the square of the move made in this state, or -1 at the end of the game
+         */
+        void visit(Cursor game, int ply, GameState s, int move);
+    }
+
+    private GameRecordReader(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int capacity = buffer.capacity();
+        if(capacity < GameRecordWriter.HEADER_BYTES || buffer.getInt(0) != GameRecordWriter.MAGIC)
+            throw new IOException("Not a game record file");
+        if(buffer.getInt(4) != GameRecordWriter.VERSION)
+            throw new IOException("Unsupported game record version " + buffer.getInt(4));
+        blockGames = buffer.getInt(8);
+        if(blockGames < 1) throw new IOException("Corrupt game record file");
+
+        int trailer = capacity - GameRecordWriter.TRAILER_BYTES;
+        long end = 0, count = -1;
+        if(trailer >= GameRecordWriter.HEADER_BYTES && buffer.getInt(trailer + 16) == GameRecordWriter.INDEX_MAGIC) {
+            end = buffer.getLong(trailer);
+            count = buffer.getLong(trailer + 8);
+        }
+        long n = (count + blockGames - 1) / blockGames;
+        if(end >= GameRecordWriter.HEADER_BYTES && count >= 0 && end + n * 8 == trailer) {
+            gamesEnd = end;
+            games = count;
+            blocks = new long[(int) n];
+            for(int i = 0; i < n; i++) blocks[i] = buffer.getLong((int) gamesEnd + 8 * i);
+        } else { // not closed: rebuild the index from the complete games
+            long[] offsets = new long[16];
+            int offset = GameRecordWriter.HEADER_BYTES;
+            count = 0;
+            while(offset + GameRecordWriter.GAME_HEADER_BYTES <= capacity) {
+                int gameEnd = offset + gameBytes(offset);
+                if(gameEnd > capacity || buffer.get(offset) == 0) break;
+                if(count % blockGames == 0) {
+                    int block = (int) (count / blockGames);
+                    if(block == offsets.length) offsets = Arrays.copyOf(offsets, 2 * block);
+                    offsets[block] = offset;
+                }
+                count++;
+                offset = gameEnd;
+            }
+            gamesEnd = offset;
+            games = count;
+            blocks = Arrays.copyOf(offsets, (int) ((count + blockGames - 1) / blockGames));
+        }
+    }
+
+    /**
+     * Maps the given file into memory.
+     * @throws IOException if it cannot be read or is not a game record file of this version
+     */
+    public static GameRecordReader open(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) throw new IOException("Game record file too large: " + file);
+            return new GameRecordReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public long getGameCount() {
+        return games;
+    }
+
+    private int gameBytes(int offset) {
+        int size = buffer.get(offset) & 0xFF;
+        int moves = buffer.getShort(offset + 4) & 0xFFFF;
+        return GameRecordWriter.GAME_HEADER_BYTES + moves * (size > GameRecordWriter.BYTE_MOVES_MAX_SIZE ? 2 : 1);
+    }
+
+    /**
+     * Returns a cursor before the first game.
+     */
+    public Cursor cursor() {
+        return seek(0);
+    }
+
+    /**
+     * Returns a cursor before the given game, so that next moves it onto that game.
+     */
+    public Cursor seek(long game) {
+        if(game < 0 || game > games) throw new IndexOutOfBoundsException("No game " + game + " of " + games);
+        Cursor c = new Cursor();
+        if(game == games) {
+            c.next = (int) gamesEnd;
+        } else {
+            c.next = (int) blocks[(int) (game / blockGames)];
+            for(long g = game - game % blockGames; g < game; g++) c.next += gameBytes(c.next);
+        }
+        c.game = game - 1;
+        return c;
+    }
+
+    /**
+     * Replays all games, calling the visitor for every position.
+     */
+    public void forEachPosition(PositionVisitor visitor) {
+        Cursor c = cursor();
+        while(c.next()) c.forEachPosition(visitor);
+    }
+
+    /**
+     * The file is unmapped when the buffer is garbage collected; close only marks the end of use.
+     */
+    public void close() {
+    }
+
+    /**
+     * A position in the file, on one game at a time.
+     */
+    public final class Cursor {
+        private long game;
+        private int offset = -1;
+        private int next;
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the next game.
+         * @return false if there is none
+         */
+        public boolean next() {
+            if(game + 1 >= games) return false;
+            game++;
+            offset = next;
+            next += gameBytes(offset);
+            return true;
+        }
+
+        /**
+         * Returns the number of the game, from 0.
+         */
+        public long getGame() {
+            return game;
+        }
+
+        public int getSize() {
+            return buffer.get(offset) & 0xFF;
+        }
+
+        public int getStartingPlayer() {
+            return buffer.get(offset + 1) & 3;
+        }
+
+        public boolean isForfeit() {
+            return (buffer.get(offset + 1) & GameRecordWriter.FORFEIT) != 0;
+        }
+
+        /**
+         * Returns black's tokens minus white's tokens at the end of the game.
+         */
+        public int getResult() {
+            return buffer.getShort(offset + 2);
+        }
+
+        public int getMoveCount() {
+            return buffer.getShort(offset + 4) & 0xFFFF;
+        }
+
+        /**
+         * Returns the square of the given move (from 0).
+         */
+        public int getMove(int i) {
+            if(getSize() > GameRecordWriter.BYTE_MOVES_MAX_SIZE) return buffer.getShort(offset + 6 + 2 * i) & 0xFFFF;
+            return buffer.get(offset + 6 + i) & 0xFF;
+        }
+
+        /**
+         * Returns the state after the given number of moves of the game, with the passes made.
+         * @throws IllegalStateException if the record holds an illegal move
+         */
+        public GameState replay(int plies) {
+            GameState s = new GameState(getSize(), getStartingPlayer());
+            for(int i = 0; i < plies; i++) play(s, getMove(i));
+            passIfNeeded(s);
+            return s;
+        }
+
+        /**
+         * Replays the game on one state, calling the visitor before every move and at the end.
+         * @throws IllegalStateException if the record holds an illegal move
+         */
+        public void forEachPosition(PositionVisitor visitor) {
+            GameState s = new GameState(getSize(), getStartingPlayer());
+            int n = getMoveCount();
+            for(int i = 0; i < n; i++) {
+                passIfNeeded(s);
+                int m = getMove(i);
+                visitor.visit(this, i, s, m);
+                play(s, m);
+            }
+            passIfNeeded(s);
+            visitor.visit(this, n, s, -1);
+        }
+
+        private void play(GameState s, int square) {
+            passIfNeeded(s);
+            if(s.makeMove(square) < 0) throw new IllegalStateException("Illegal move " + square + " in game " + game);
+        }
+
+        private void passIfNeeded(GameState s) {
+            if(!s.getBitBoard().hasLegalMove(s.getPlayerInTurn()) && s.opponentCanMove()) s.changePlayer();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Appends games to a game record file, which GameRecordReader reads. A game is stored as its
+ * moves from the usual start position, one byte per move (two on boards larger than 16x16);
+ * passes are not stored, since a player passes exactly when it has no legal move. The file is:
+ *   header: magic "OTGR", version, games per block, 0 (ints)
+ *   games:  board size (byte), flags (byte: the starting player in bits 0-1, FORFEIT in bit 2),
+ *           result (short: black's tokens minus white's), number of moves (short), the squares
+ *   index:  the file offset of the first game of every block (longs)
+ *   trailer: offset of the index, number of games (longs), magic "OTGI", 0 (ints)
+ * all little-endian. A block is a run of blockGames games, so the reader finds a game by reading
+ * the offset of its block and skipping at most blockGames-1 games. The index and trailer are
+ * written by close; the reader of a file whose writer did not close it (e.g. after a crash)
+ * rebuilds the index from the games, dropping a last game that was only written in part.
+ * The games are buffered and written in large chunks, so adding a game is cheap.
+ */
+public class GameRecordWriter implements Closeable {
+    public static final int MAGIC = 0x4F544752; // "OTGR"
+    public static final int INDEX_MAGIC = 0x4F544749; // "OTGI"
+    public static final int VERSION = 1;
+    public static final int DEFAULT_BLOCK_GAMES = 1024;
+    // set in the flags of a game that was lost by an illegal move or by running out of time
+    public static final int FORFEIT = 4;
+    static final int HEADER_BYTES = 16;
+    static final int GAME_HEADER_BYTES = 6;
+    static final int TRAILER_BYTES = 24;
+    // the largest board size with one byte per move
+    static final int BYTE_MOVES_MAX_SIZE = 16;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final int blockGames;
+    // the offset of the next game in the file, the number of games and the offsets of the blocks
+    private long offset;
+    private long games;
+    private long[] blocks = new long[16];
+
+    private GameRecordWriter(FileChannel channel, int blockGames, long offset, long games, long[] blocks) {
+        this.channel = channel;
+        this.blockGames = blockGames;
+        this.offset = offset;
+        this.games = games;
+        int n = (int) ((games + blockGames - 1) / blockGames);
+        this.blocks = Arrays.copyOf(blocks, Math.max(16, n));
+    }
+
+    /**
+     * Creates the file, or empties it if it exists, with DEFAULT_BLOCK_GAMES games per block.
+     */
+    public static GameRecordWriter create(Path file) throws IOException {
+        return create(file, DEFAULT_BLOCK_GAMES);
+    }
+
+    public static GameRecordWriter create(Path file, int blockGames) throws IOException {
+        if(blockGames < 1) throw new IllegalArgumentException("Not a number of games per block: " + blockGames);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        GameRecordWriter writer = new GameRecordWriter(channel, blockGames, HEADER_BYTES, 0, new long[0]);
+        writer.buffer.putInt(MAGIC).putInt(VERSION).putInt(blockGames).putInt(0);
+        return writer;
+    }
+
+    /**
+     * Opens the file for adding games after those in it, or creates it if it does not exist.
+     * The file is read with plain reads rather than mapped (as GameRecordReader does), since it is
+     * then truncated, which some systems (e.g. Windows) do not allow while it is mapped.
+     * @throws IOException if it is not a game record file of this version
+     */
+    public static GameRecordWriter append(Path file) throws IOException {
+        if(!Files.exists(file) || Files.size(file) == 0) return create(file);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long length = channel.size();
+            if(length < HEADER_BYTES) throw new IOException("Not a game record file");
+            ByteBuffer header = read(channel, 0, HEADER_BYTES);
+            if(header.getInt(0) != MAGIC) throw new IOException("Not a game record file");
+            if(header.getInt(4) != VERSION) throw new IOException("Unsupported game record version " + header.getInt(4));
+            int blockGames = header.getInt(8);
+            if(blockGames < 1) throw new IOException("Corrupt game record file");
+
+            long end = 0, games = 0;
+            long[] blocks = null;
+            long trailer = length - TRAILER_BYTES;
+            if(trailer >= HEADER_BYTES) {
+                ByteBuffer t = read(channel, trailer, TRAILER_BYTES);
+                end = t.getLong(0);
+                games = t.getLong(8);
+                long n = (games + blockGames - 1) / blockGames;
+                if(t.getInt(16) == INDEX_MAGIC && end >= HEADER_BYTES && games >= 0 && end + n * 8 == trailer) {
+                    blocks = new long[(int) n];
+                    read(channel, end, (int) n * 8).asLongBuffer().get(blocks);
+                }
+            }
+            if(blocks == null) { // not closed: find the complete games, as the reader does
+                blocks = new long[16];
+                games = 0;
+                end = HEADER_BYTES;
+                ByteBuffer chunk = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                long chunkStart = 0;
+                chunk.limit(0);
+                while(end + GAME_HEADER_BYTES <= length) {
+                    if(end + GAME_HEADER_BYTES > chunkStart + chunk.limit()) {
+                        chunkStart = end;
+                        chunk.clear();
+                        while(chunk.hasRemaining() && channel.read(chunk, chunkStart + chunk.position()) >= 0);
+                        chunk.flip();
+                    }
+                    int at = (int) (end - chunkStart);
+                    int size = chunk.get(at) & 0xFF;
+                    int moves = chunk.getShort(at + 4) & 0xFFFF;
+                    long gameEnd = end + GAME_HEADER_BYTES + moves * (size > BYTE_MOVES_MAX_SIZE ? 2 : 1);
+                    if(gameEnd > length || size == 0) break;
+                    if(games % blockGames == 0) {
+                        int block = (int) (games / blockGames);
+                        if(block == blocks.length) blocks = Arrays.copyOf(blocks, 2 * block);
+                        blocks[block] = end;
+                    }
+                    games++;
+                    end = gameEnd;
+                }
+            }
+            channel.truncate(end); // the index, the trailer and a game written in part
+            channel.position(end);
+            return new GameRecordWriter(channel, blockGames, end, games, blocks);
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the given number of bytes at the given offset of the file.
+     * @return a little-endian buffer of the bytes, at position 0
+     */
+    private static ByteBuffer read(FileChannel channel, long offset, int bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, offset + buffer.position()) < 0) throw new IOException("Corrupt game record file");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Adds a game.
+     * @param size the board size
+     * @param startingPlayer the player in turn at the start, 1 (black) or 2 (white)
+     * @param moves the squares (see GameState.square) of the moves in order, without passes
+     * @param count the number of moves
+     * @param result black's tokens minus white's tokens at the end
+     * @param forfeit whether the game ended because a player made an illegal move or ran out of time
+     */
+    public synchronized void writeGame(int size, int startingPlayer, int[] moves, int count, int result, boolean forfeit) throws IOException {
+        if(size < 1 || size > 255 || startingPlayer < 1 || startingPlayer > 2 || count > size * size
+                || result < Short.MIN_VALUE || result > Short.MAX_VALUE)
+            throw new IllegalArgumentException("Not a game that can be recorded");
+        int moveBytes = size > BYTE_MOVES_MAX_SIZE ? 2 : 1;
+        int bytes = GAME_HEADER_BYTES + count * moveBytes;
+        if(buffer.remaining() < bytes) flush();
+
+        if(games % blockGames == 0) {
+            int block = (int) (games / blockGames);
+            if(block == blocks.length) blocks = Arrays.copyOf(blocks, 2 * block);
+            blocks[block] = offset;
+        }
+        buffer.put((byte) size).put((byte) (startingPlayer | (forfeit ? FORFEIT : 0)))
+              .putShort((short) result).putShort((short) count);
+        for(int i = 0; i < count; i++) {
+            if(moveBytes == 1) buffer.put((byte) moves[i]);
+            else buffer.putShort((short) moves[i]);
+        }
+        offset += bytes;
+        games++;
+    }
+
+    /**
+     * Same as writeGame(int, int, int[], int, int, boolean), with the moves in a list.
+     */
+    public void writeGame(int size, int startingPlayer, List<Integer> moves, int result, boolean forfeit) throws IOException {
+        int[] squares = new int[moves.size()];
+        for(int i = 0; i < squares.length; i++) squares[i] = moves.get(i);
+        writeGame(size, startingPlayer, squares, squares.length, result, forfeit);
+    }
+
+    public synchronized long getGameCount() {
+        return games;
+    }
+
+    /**
+     * Writes the buffered games to the file (without the index, which close writes).
+     */
+    public synchronized void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes the buffered games, the index and the trailer, and closes the file.
+     */
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+            int n = (int) ((games + blockGames - 1) / blockGames);
+            ByteBuffer index = ByteBuffer.allocate(n * 8 + TRAILER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for(int i = 0; i < n; i++) index.putLong(blocks[i]);
+            index.putLong(offset).putLong(games).putInt(INDEX_MAGIC).putInt(0);
+            index.flip();
+            while(index.hasRemaining()) channel.write(index);
+        } finally {
+            channel.close();
+        }
+    }
+}
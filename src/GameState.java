@@ -2,14 +2,24 @@ import java.util.ArrayList;
 
 /**
  * Class to represent the state of a game of Othello.  The state is defined by a 2-dimensional
- * board and whose turn it is. 
+ * board and whose turn it is. The board is stored as a bitboard (see BitBoard), where square
+ * (col, row) has index col*size + row.
  * @author Mai Ajspur
  * @version 9.2.2018
  */
 public class GameState {
-	private int[][] board; 		// Possible values: 0 (empty), 1 (black), 2 (white)
+	private BitBoard board; 	// The tokens of both players, see BitBoard
 	private int currentPlayer; 	// The player who is next to put a token on the board. Value is 1 or 2.
 	private int size;  			// The number of columns = the number of rows on the board
+	private int[] moveBuffer;	// Buffer for the squares of the legal moves
+	private int empties;		// The number of empty squares, kept up to date by every move
+	private Zobrist zobrist;	// The Zobrist keys for this board size
+	private long hash;			// Zobrist hash of the board and the player in turn
+	private long[] hashHistory;	// Hashes before the moves made with makeMove, latest on top
+	private int historyTop;
+	private int[] flipBuffer;	// Buffer for the squares turned by a move
+	private Patterns patterns;	// The evaluation patterns for this board size
+	private int[] patternIndices;	// Base-3 index of each pattern, see Patterns
 	
 	//************ Constructors ****************//
 	/**
@@ -22,13 +32,16 @@ public class GameState {
 	 */
 	public GameState(int size, int playerToStart) {
 		this.size = size;
-		board = new int[size][size];
+		board = BitBoard.create(size);
+		moveBuffer = new int[size*size];
 		currentPlayer = playerToStart;
         int half = size/2-1;
-        board[half][half] = 1;
-        board[half+1][half+1] = 1;
-        board[half][half+1] = 2;
-        board[half+1][half] = 2;   
+        board.set(square(half, half), 1);
+        board.set(square(half+1, half+1), 1);
+        board.set(square(half, half+1), 2);
+        board.set(square(half+1, half), 2);
+        empties = size*size - 4;
+        initHash();
 	}
 	
 	/**
@@ -40,23 +53,113 @@ public class GameState {
 	 */
 	public GameState(int[][] board, int playerToTakeTurn) {
 		this.size = board.length;
-		this.board = new int[size][size];
+		this.board = BitBoard.create(size);
+		this.moveBuffer = new int[size*size];
 		for(int i = 0; i < size; i++) {
 			for(int j = 0; j < size; j++) {
-				this.board[i][j] = board[i][j];
+				this.board.set(square(i, j), board[i][j]);
+				if(board[i][j] == 0) empties++;
 			}
 		}
 		this.currentPlayer = playerToTakeTurn;
+		initHash();
+	}
+
+	/**
+	 * Constructs a copy of the given game state, which can be changed independently of it.
+	 */
+	public GameState(GameState s) {
+		this.size = s.size;
+		this.board = s.board.copy();
+		this.moveBuffer = new int[size*size];
+		this.currentPlayer = s.currentPlayer;
+		this.empties = s.empties;
+		initHash();
+	}
+
+	/**
+	 * Makes this state equal to the given one, which must have the same size, without allocating.
+	 * The moves made on this state before can no longer be taken back.
+	 */
+	public void copyFrom(GameState s) {
+		if(s.size != size) throw new IllegalArgumentException("Cannot copy a state of size " + s.size + " into one of size " + size);
+		board.copyFrom(s.board);
+		currentPlayer = s.currentPlayer;
+		empties = s.empties;
+		hash = s.hash;
+		historyTop = 0;
+		System.arraycopy(s.patternIndices, 0, patternIndices, 0, patternIndices.length);
+	}
+
+	private void initHash() {
+		zobrist = Zobrist.forSize(size);
+		hash = zobrist.hash(board, currentPlayer);
+		hashHistory = new long[size*size + 1];
+		flipBuffer = new int[size*size];
+		patterns = Patterns.forSize(size);
+		patternIndices = new int[patterns.getCount()];
+		patterns.indices(board, patternIndices);
 	}
 	
 	//************ Getter methods *******************//
 	/**
-	 * Returns the array representing the board of this game state
+	 * Returns an array representing the board of this game state, with the values 0 (empty),
+	 * 1 (black) and 2 (white). The array is a copy, so changing it does not change the state.
 	 */
 	public int[][] getBoard() {
+		int[][] b = new int[size][size];
+		for(int i = 0; i < size; i++) {
+			for(int j = 0; j < size; j++) {
+				b[i][j] = board.get(square(i, j));
+			}
+		}
+		return b;
+	}
+
+	/**
+	 * Returns the bitboard of this game state. It is the state's own bitboard, not a copy.
+	 */
+	public BitBoard getBitBoard() {
 		return board;
 	}
 
+	/**
+	 * Returns the number of columns (and rows) of the board.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the token at the given column and row: 0 (empty), 1 (black) or 2 (white).
+	 */
+	public int getToken(int col, int row) {
+		return board.get(square(col, row));
+	}
+
+	/**
+	 * Returns the number of empty squares on the board.
+	 */
+	public int getEmptyCount() {
+		return empties;
+	}
+
+	/**
+	 * Returns the Zobrist hash of the board and the player in turn (see Zobrist). Equal states
+	 * have equal hashes, and the hash is kept up to date by every move.
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Returns the base-3 index of each pattern of the board (see Patterns), kept up to date by
+	 * every move. It is the state's own array, so it must not be changed.
+	 */
+	public int[] getPatternIndices() {
+		return patternIndices;
+	}
+
 	/**
 	 * Returns the player whose turn it is, i.e. 1 (black) or 2 (white).
 	 */
@@ -64,12 +167,27 @@ public class GameState {
 		return currentPlayer;
 	}
 
+	/**
+	 * Returns the index of the square at the given column and row.
+	 */
+	public int square(int col, int row) {
+		return col*size + row;
+	}
+
+	/**
+	 * Returns the position of the square with the given index.
+	 */
+	public Position position(int square) {
+		return new Position(square / size, square % size);
+	}
+
 	//************* Methods ****************//
 	/**
 	 * Skips the turn of the current player (without) changing the board.
 	 */
 	public void changePlayer(){
 		currentPlayer = currentPlayer == 1 ? 2 : 1;
+		hash ^= zobrist.side();
 	}
 	
 	/**
@@ -77,17 +195,29 @@ public class GameState {
 	 * and false otherwise.
 	 */
 	public boolean isFinished() {
-		if(!legalMoves().isEmpty())
+		if(empties == 0)
+			return true;
+		return !board.hasLegalMove(currentPlayer) && !opponentCanMove();
+	}
+
+	/**
+	 * Same as isFinished, but reuses the number of legal moves of the current player, e.g. from
+	 * legalMoves(int[]), so that a search only has to generate the moves of a node once. Like
+	 * isFinished, this does not change the state.
+	 * @param legalMoveCount The number of legal moves of the current player in this state
+	 */
+	public boolean isTerminal(int legalMoveCount) {
+		if(legalMoveCount > 0)
 			return false;
-		else{ //current player has no legal moves
-			changePlayer();
-			if(legalMoves().isEmpty()) //next player also has no legal moves
-				return true;
-			else {
-				changePlayer();
-				return false;
-			}
-		}
+		return empties == 0 || !opponentCanMove();
+	}
+
+	/**
+	 * Returns true if the player who is not in turn has a legal move in this state.
+	 * If the current player has no legal moves, this tells whether the game goes on with a pass.
+	 */
+	public boolean opponentCanMove() {
+		return board.hasLegalMove(currentPlayer == 1 ? 2 : 1);
 	}
 	
 	/**
@@ -95,17 +225,7 @@ public class GameState {
 	 * with the numbers in that order.
 	 */
 	public int[] countTokens() {
-    	int tokens1 = 0;
-    	int tokens2 = 0;
-    	for (int i = 0; i < size; i++) {
-    		for (int j = 0; j < size; j++) {
-    			if ( board[i][j] == 1 )
-    				tokens1++;
-    			else if ( board[i][j] == 2 )
-    				tokens2++;
-    		}
-    	}
-    	return new int[]{tokens1, tokens2};
+    	return new int[]{board.count(1), board.count(2)};
 	}
 	
 	/**
@@ -116,26 +236,12 @@ public class GameState {
     public boolean insertToken(Position place) {
     	if(place.col < 0 || place.row < 0 || place.col >= size || place.row >= size) //not a position on the board
     		return false;
-    	if(board[place.col][place.row] != 0) // The position is not empty
-    		return false;
 
-    	boolean capturesFound = false;
-    	// Capturing all possible opponents of the current player
-    	for(int deltaX = -1; deltaX <= 1; deltaX++) {
-    		for(int deltaY = -1; deltaY <= 1; deltaY++) {
-        		int captives = captureInDirection(place, deltaX, deltaY); 
-        		if(captives > 0) {
-        			capturesFound = true;
-        			for(int i = 1; i <= captives; i++)
-        				board[place.col+deltaX*i][place.row+deltaY*i]=currentPlayer;
-        		}
-        	}		
-    	}
-    	
-    	if(capturesFound) {
-    		// Place the token at the given place
-    		board[place.col][place.row] = currentPlayer;
+    	if(board.move(square(place.col, place.row), currentPlayer) > 0) {
+    		empties--;
     		this.changePlayer();
+    		hash = zobrist.hash(board, currentPlayer);
+    		patterns.indices(board, patternIndices);
     		return true;
     	}
     	else {
@@ -144,56 +250,74 @@ public class GameState {
     }
 
     /**
-     * Returns a list of all the positions on the board that constitutes a legal move for the current player.
+     * Makes the given move for the current player in place, like insertToken, but so that it can be
+     * taken back with undoMove. Moves must be taken back in the reverse order in which they were made.
+     * @return an undo record for undoMove, or -1 if the move is not legal (then nothing is changed)
      */
-    public ArrayList<Position> legalMoves() {
-    	ArrayList<Position> posPlaces = new ArrayList<Position>();
-    	for(int i = 0; i < this.size; i++) {
-    		for(int j = 0; j < this.size; j++) {
-    			if(board[i][j] == 0) {
-    				posPlaces.add(new Position(i,j));
-    			}
-    		}
-    	}
+    public int makeMove(Position place) {
+    	if(place.col < 0 || place.row < 0 || place.col >= size || place.row >= size) //not a position on the board
+    		return -1;
+    	return makeMove(square(place.col, place.row));
+    }
 
-    	ArrayList<Position> legalPlaces = new ArrayList<Position>();
-    	for(Position p : posPlaces) {
-    		for(int deltaX = -1; deltaX <= 1; deltaX++) {
-    			for(int deltaY = -1; deltaY <= 1; deltaY++) {
-    				if(captureInDirection(p, deltaX, deltaY) > 0) {
-    	    			legalPlaces.add(p);
-    				}
-    			}
-    		}
+    /**
+     * Same as makeMove(Position), but with the move given by the index of its square.
+     */
+    public int makeMove(int square) {
+    	if(board.make(square, currentPlayer) == 0)
+    		return -1;
+    	int record = square | currentPlayer << 16;
+    	hashHistory[historyTop++] = hash;
+    	int n = board.lastFlips(flipBuffer);
+    	int flipDelta = currentPlayer == 1 ? -1 : 1; // the change of a turned token's base-3 digit
+    	for(int i = 0; i < n; i++) {
+    		hash ^= zobrist.flip(flipBuffer[i]);
+    		patterns.update(patternIndices, flipBuffer[i], flipDelta);
     	}
-    	return legalPlaces;
-    }	
-    
+    	hash ^= zobrist.token(square, currentPlayer);
+    	patterns.update(patternIndices, square, currentPlayer);
+    	empties--;
+    	this.changePlayer();
+    	return record;
+    }
+
+    /**
+     * Takes back the move that returned the given undo record from makeMove. The turned tokens
+     * are turned back and the player who made the move is in turn again.
+     */
+    public void undoMove(int record) {
+    	int player = record >>> 16;
+    	int square = record & 0xFFFF;
+    	int n = board.lastFlips(flipBuffer);
+    	int flipDelta = player == 1 ? 1 : -1;
+    	for(int i = 0; i < n; i++)
+    		patterns.update(patternIndices, flipBuffer[i], flipDelta);
+    	patterns.update(patternIndices, square, -player);
+    	board.unmake(square, player);
+    	empties++;
+    	currentPlayer = player;
+    	hash = hashHistory[--historyTop];
+    }
+
+    /**
+     * Writes the squares (see square) of all legal moves for the current player to the given buffer,
+     * each square once and in increasing order. Unlike legalMoves(), nothing is allocated.
+     * @param moves Buffer with room for at least size*size squares
+     * @return the number of legal moves written to the buffer
+     */
+    public int legalMoves(int[] moves) {
+    	return board.legalMoves(currentPlayer, moves);
+    }
+
     /**
-     * Checks how many tokens of the opponent the player can capture in the direction given by deltaX and deltaY
-     * if the player puts a token at the given position.
-     * @param p A position on the board
-     * @param deltaX The step to be taken in the x-direction. Should be -1 (left), 0 (none), or 1 (right).
-     * @param deltaY The step to be taken in the delta direction. Should be -1 (up), 0 (none), or 1 (down).
+     * Returns a list of all the positions on the board that constitutes a legal move for the current player.
      */
-    private int captureInDirection(Position p, int deltaX, int deltaY) {
-    	int opponent = (currentPlayer == 1 ? 2 : 1); 
-        
-    	int captured = 0;
-    	int cc = p.col;
-    	int rr = p.row;
-        while(0 <= cc+deltaX && cc+deltaX < size && 0 <= rr+deltaY && rr+deltaY < size
-    			&& board[cc+deltaX][rr+deltaY] == opponent ) {
-        	cc = cc + deltaX;
-        	rr = rr + deltaY;
-        	captured++;
-        }
-
-        if(0 <= cc+deltaX && cc+deltaX < size && 0 <= rr+deltaY && rr+deltaY < size
-    			&& board[cc+deltaX][rr+deltaY] == currentPlayer && captured > 0) {
-        	return captured;
-        }
-        else
-        	return 0;
+    public ArrayList<Position> legalMoves() {
+    	int n = board.legalMoves(currentPlayer, moveBuffer);
+    	ArrayList<Position> legalPlaces = new ArrayList<Position>(n);
+    	for(int i = 0; i < n; i++) {
+    		legalPlaces.add(position(moveBuffer[i]));
+    	}
+    	return legalPlaces;
     }
 }
\ No newline at end of file
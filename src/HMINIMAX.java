@@ -1,125 +1,700 @@
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
 /**
  * @author Sabina Hult
  * @version 7.3.2019
  * Implementation of the H-MINIMAX algorithm with alpha-beta pruning as well as
- * cutoff and an evaluation function.
+ * cutoff and an evaluation function (see Evaluator).
+ * The search can run in parallel on a ForkJoinPool (see setThreads) with Young Brothers Wait:
+ * the first (eldest) child of a node is searched alone, and once its value is known the
+ * remaining brothers are searched in parallel, all sharing the transposition table.
+ * The metrics of every decision are reported to the listeners (see SearchStats).
  */
 @SuppressWarnings("Duplicates")
-public class HMINIMAX {
-    private static final int CUTOFF_DEPTH = 6;
-    // to make the algorithm independent on whether SmarterAI is player 1 (black) or player 2 (white)
-    private static int thisPlayer;
+public class HMINIMAX implements SearchEngine {
+    public static final int DEFAULT_DEPTH = 6;
+    public static final long DEFAULT_TABLE_BYTES = 64L << 20;
+    public static final int DEFAULT_ENDGAME_EMPTIES = 14;
+    // the clock is only read every DEADLINE_CHECK_NODES nodes, which must be a power of two
+    private static final int DEADLINE_CHECK_NODES = 1024;
+    // brothers are only searched in parallel at nodes with at least this many plies left,
+    // so that a task is worth the cost of copying the state
+    private static final int SPLIT_DEPTH = 3;
 
-    public static Position decision(GameState s) {
-        thisPlayer = s.getPlayerInTurn();
-        Position move = null;
-        int max_value = Integer.MIN_VALUE;
+    // the depth of searches without a time budget
+    private int cutoffDepth = DEFAULT_DEPTH;
+    // the time budget of decision(GameState), null to search to cutoffDepth instead
+    private Duration timeBudget;
+    private Evaluator evaluator = new PatternEvaluator();
+    // results of earlier searched subtrees, shared between searches and threads
+    private TranspositionTable table;
+    // the pool of the parallel search, null for a search on the calling thread only
+    private ForkJoinPool pool;
+    // whether to order moves by killer moves, history and square priority (see MoveOrdering)
+    private boolean moveOrdering = true;
+    // the number of nodes visited by the latest decision
+    private long nodes;
+    // states with at most this many empty squares are solved exactly by the endgame solver
+    private int endgameEmpties = DEFAULT_ENDGAME_EMPTIES;
+    private final EndgameSolver endgame;
+    private final List<SearchListener> listeners = new CopyOnWriteArrayList<>();
+    // the metrics of the latest decision
+    private SearchStats stats;
+    // the latest search, for stopping it from another thread
+    private volatile Search running;
+    // set by stop until the next decision starts, so that a stop before the search is not lost
+    private volatile boolean stopped;
 
-        for(Position p : s.legalMoves()) {
-            int val = minValue(result(s, p), Integer.MIN_VALUE, Integer.MAX_VALUE, 1);
+    public HMINIMAX() {
+        this(new TranspositionTable(DEFAULT_TABLE_BYTES), new TranspositionTable(EndgameSolver.DEFAULT_TABLE_BYTES));
+    }
 
-            if(val >= max_value) {
-                max_value = val;
-                move = p;
-            }
-        }
+    /**
+     * Searches with the given tables instead of allocating its own, e.g. to share them with other
+     * engines: one for the search and another one for the endgame solver.
+     */
+    public HMINIMAX(TranspositionTable table, TranspositionTable endgameTable) {
+        this.table = table;
+        this.endgame = new EndgameSolver(EndgameSolver.DISC_DIFFERENCE, endgameTable);
+    }
 
-        return move;
+    /**
+     * Sets the depth of searches without a time budget.
+     */
+    public void setDepth(int depth) {
+        this.cutoffDepth = depth;
+    }
+
+    /**
+     * Sets the time budget of decision(GameState). With null (the default) it searches to a
+     * fixed depth instead, see setDepth.
+     */
+    public void setTimeBudget(Duration timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    public void setEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Replaces the transposition table by an empty one using at most the given number of bytes.
+     */
+    public void setTableSize(long bytes) {
+        table = new TranspositionTable(bytes);
+    }
+
+    /**
+     * Replaces the transposition table by the given one, e.g. to share one table between engines
+     * searching on different threads.
+     */
+    public void setTable(TranspositionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Returns the transposition table, e.g. to read its hit rate.
+     */
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    public void newGame() {
+        table.clear();
+        endgame.clearTable();
+    }
+
+    /**
+     * Returns the name of the engine and of the evaluation for the size, e.g. "HMINIMAX/Pattern-1f03a2c4".
+     */
+    public String getTableOwner(int size) {
+        return getClass().getSimpleName() + "/" + evaluator.getName(size);
+    }
+
+    /**
+     * Turns ordering of the moves by killer moves, history and square priority on or off; the
+     * best move from the transposition table is searched first either way. Meant for measuring
+     * the effect of the ordering with getNodes.
+     */
+    public void setMoveOrdering(boolean moveOrdering) {
+        this.moveOrdering = moveOrdering;
+    }
+
+    /**
+     * Returns the number of nodes visited by the latest decision, in all threads.
+     */
+    public long getNodes() {
+        return nodes;
     }
 
-    private static GameState result(GameState s, Position p) {
-        GameState n = new GameState(s.getBoard(), s.getPlayerInTurn());
-        n.insertToken(p);
-        return n;
+    /**
+     * Aborts the running iteration (in all threads) as if its deadline was reached. The stop holds
+     * for the rest of the decision, also if it comes between the endgame solver and the search.
+     */
+    public void stop() {
+        stopped = true;
+        Search search = running;
+        if(search != null) search.aborted = true;
+        endgame.stop();
     }
 
-    private static int maxValue(GameState s, int alpha, int beta, int d) {
-        if(cutoffTest(s, d)) return eval(s);
-        d++;
+    public boolean canStop() {
+        return true;
+    }
 
-        int v = Integer.MIN_VALUE;
-        for(Position p : s.legalMoves()) {
-            v = Math.max(v, minValue(result(s, p), alpha, beta, d));
-            if(v >= beta) return v;
-            alpha = alpha > v ? alpha : v;
+    public void addListener(SearchListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SearchListener listener) {
+        listeners.remove(listener);
+    }
+
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Sets the number of empty squares at which the endgame solver takes over from the search,
+     * 0 to always search.
+     */
+    public void setEndgameEmpties(int empties) {
+        this.endgameEmpties = empties;
+    }
+
+    /**
+     * Sets whether the endgame solver only finds a winning (or drawing) move, which is faster,
+     * or the move with the best final disc difference (the default).
+     * @param mode EndgameSolver.WIN_LOSS_DRAW or EndgameSolver.DISC_DIFFERENCE
+     */
+    public void setEndgameMode(int mode) {
+        endgame.setMode(mode);
+    }
+
+    /**
+     * Sets the number of threads the search uses. With 1 thread the search runs on the calling
+     * thread; with more, it runs on a ForkJoinPool with that many threads.
+     */
+    public void setThreads(int threads) {
+        if(pool != null) pool.shutdown();
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     * Searches within the time budget if one is set, and otherwise to the fixed depth.
+     */
+    public Position decision(GameState s) {
+        if(timeBudget != null) return decision(s, timeBudget);
+        stopped = false;
+        endgame.reset();
+        stats = new SearchStats(getClass().getSimpleName(), s, table, listeners);
+        if(s.getEmptyCount() <= endgameEmpties && solveEndgame(s, Long.MAX_VALUE)) return stats.finish(endgame.getMove());
+
+        Search search = start(s, Long.MAX_VALUE);
+        Searcher root = new Searcher(search, new GameState(s), cutoffDepth);
+        int move = rootSearch(root, cutoffDepth, -1);
+        nodes = root.nodes;
+        iterationFinished(root, cutoffDepth, move);
+        if(move < 0 && search.aborted && root.s.legalMoves(root.moves[0]) > 0) move = root.moves[0][0]; // stopped
+        return stats.finish(move < 0 ? null : s.position(move));
+    }
+
+    /**
+     * Iterative deepening within a time budget: searches to depth 1, 2, 3, ... and returns the best
+     * move of the deepest search that was completed. The iteration running at the deadline is
+     * aborted, and no new iteration is started once half of the budget is used, since it would
+     * hardly finish in time. In the endgame (see setEndgameEmpties) the endgame solver gets the first
+     * half of the budget, and the search only runs if it cannot solve the state in that time.
+     */
+    public Position decision(GameState s, Duration budget) {
+        long start = System.nanoTime();
+        stopped = false;
+        endgame.reset();
+        stats = new SearchStats(getClass().getSimpleName(), s, table, listeners);
+        if(s.getEmptyCount() <= endgameEmpties && solveEndgame(s, start + budget.toNanos() / 2))
+            return stats.finish(endgame.getMove());
+        int maxDepth = s.getEmptyCount();
+        Search search = start(s, start + budget.toNanos());
+        Searcher root = new Searcher(search, new GameState(s), maxDepth);
+
+        int[] legal = root.moves[0];
+        int count = root.s.legalMoves(legal);
+        if(count <= 1) return stats.finish(count == 0 ? null : s.position(legal[0]));
+
+        int best = legal[0]; // in case not even depth 1 finishes
+        for(int depth = 1; depth <= maxDepth; depth++) {
+            int move = rootSearch(root, depth, best);
+            iterationFinished(root, depth, move);
+            if(search.aborted) break;
+            best = move;
+            if(System.nanoTime() - start > budget.toNanos() / 2) break;
         }
-        return v;
+
+        nodes = root.nodes;
+        return stats.finish(s.position(best));
+    }
+
+    /**
+     * Makes a new search the running one, aborted from the start if the decision was stopped
+     * (stop sets the flag before it reads running, and this reads it after setting running).
+     */
+    private Search start(GameState s, long deadline) {
+        Search search = running = new Search(s, evaluator, pool, table, moveOrdering, deadline);
+        if(stopped) search.aborted = true;
+        return search;
+    }
+
+    private boolean solveEndgame(GameState s, long deadline) {
+        if(stopped) return false;
+        boolean solved = endgame.solve(s, deadline);
+        stats.endgame(endgame, solved);
+        return solved;
+    }
+
+    private void iterationFinished(Searcher root, int depth, int move) {
+        stats.iteration(depth, !root.search.aborted, root.search.value, move, root.nodes,
+                root.cutoffs, root.firstMoveCutoffs);
     }
 
-    private static int minValue(GameState s, int alpha, int beta, int d) {
-        if(cutoffTest(s, d)) return eval(s);
-        d++;
+    /**
+     * Searches all moves of the root to the given depth, starting with firstMove if it is legal.
+     * In parallel mode the moves after the first are searched in parallel with the window given by
+     * the first move's value, so the best move is the same as in the serial search: the first one
+     * (in search order) with the highest value.
+     * The value of the best move is stored in search.value.
+     * @return the square of the best move, or -1 if there are no moves or the search was aborted
+     */
+    private static int rootSearch(Searcher root, int depth, int firstMove) {
+        Search search = root.search;
+        search.cutoffDepth = depth;
+        search.table.newSearch();
+        int[] legal = root.moves[0];
+        int count = root.s.legalMoves(legal);
+        if(count == 0) return -1;
+        root.orderMoves(legal, count, firstMove, 0);
+
+        int move = legal[0];
+        int undo = root.s.makeMove(move);
+        int max_value = root.minValue(Integer.MIN_VALUE, Integer.MAX_VALUE, 1);
+        root.s.undoMove(undo);
+        if(search.aborted) return -1;
 
-        int v = Integer.MAX_VALUE;
-        for(Position p : s.legalMoves()) {
-            v = Math.min(v, maxValue(result(s, p), alpha, beta, d));
-            if(v <= alpha) return v;
-            beta = beta < v ? beta : v;
+        if(search.pool != null && count > 1) {
+            int[] values = root.searchBrothers(legal, count, max_value, Integer.MAX_VALUE, 1, false);
+            if(search.aborted) return -1;
+            for(int i = 1; i < count; i++) {
+                if(values[i] > max_value) {
+                    max_value = values[i];
+                    move = legal[i];
+                }
+            }
+            search.value = max_value;
+            return move;
+        }
+
+        for(int i = 1; i < count; i++) {
+            int p = legal[i];
+            undo = root.s.makeMove(p);
+            int val = root.minValue(max_value, Integer.MAX_VALUE, 1);
+            root.s.undoMove(undo);
+            if(search.aborted) return -1;
+
+            if(val > max_value) {
+                max_value = val;
+                move = p;
+            }
         }
 
-        return v;
+        search.value = max_value;
+        return move;
     }
 
-    private static boolean cutoffTest(GameState s, int d) {
-        if(terminalTest(s)) return true;
-        return d >= CUTOFF_DEPTH;
+    /**
+     * Moves the given square to the front of the move list, if it is in it, so that it is searched first.
+     */
+    private static void moveToFront(int[] legal, int count, int square) {
+        for(int i = 0; i < count; i++) {
+            if(legal[i] == square) {
+                legal[i] = legal[0];
+                legal[0] = square;
+                return;
+            }
+        }
     }
 
-    private static boolean terminalTest(GameState s) {
-        return s.isFinished();
+    /**
+     * The state of one decision that is shared by all threads searching it.
+     */
+    private static final class Search {
+        // to make the algorithm independent on whether SmarterAI is player 1 (black) or player 2 (white)
+        final int thisPlayer;
+        final int size;
+        final Evaluator evaluator;
+        final ForkJoinPool pool;
+        final TranspositionTable table;
+        final boolean moveOrdering;
+        final long deadline;
+        // the depth of the current iteration, only changed while no thread is searching
+        int cutoffDepth;
+        volatile boolean aborted;
+        // the value of the latest root search
+        int value;
+
+        Search(GameState s, Evaluator evaluator, ForkJoinPool pool, TranspositionTable table,
+               boolean moveOrdering, long deadline) {
+            this.thisPlayer = s.getPlayerInTurn();
+            this.size = s.getSize();
+            this.evaluator = evaluator;
+            this.pool = pool;
+            this.table = table;
+            this.moveOrdering = moveOrdering;
+            this.deadline = deadline;
+        }
     }
 
     /**
-     * Evaluation based on how many "good" positions, ie. corner and edge positions,
-     * each player holds at this current state.
-     * @param s the games tate to evaluate
-     * @return 1 if this player has more valuable positions, -1 if the other player
-     * holds more valuable positions and 0 if it's equal
+     * The part of a search done by one thread: it makes and takes back moves on its own copy of the
+     * game state, and keeps one buffer of legal moves per ply so that the search does not allocate.
      */
-    private static int eval(GameState s) {
-        // if the state at depth d is actually a terminal state, then return utility
-        if(terminalTest(s)) return utility(s);
+    private static final class Searcher {
+        final Search search;
+        final GameState s;
+        final int[][] moves;
+        final MoveOrdering ordering;
+        long nodes;
+        // beta cutoffs, and those of them on the first move searched
+        long cutoffs, firstMoveCutoffs;
+
+        Searcher(Search search, GameState s, int maxDepth) {
+            this.search = search;
+            this.s = s;
+            this.moves = new int[maxDepth + 2][search.size*search.size];
+            this.ordering = search.moveOrdering ? new MoveOrdering(search.size, maxDepth + 1) : null;
+        }
+
+        int maxValue(int alpha, int beta, int d) {
+            if(outOfTime()) return 0;
+            int[] legal = moves[d];
+            int count = s.legalMoves(legal);
+            if(terminalTest(count)) return utility();
+            if(cutoffTest(d)) return eval();
+
+            int depthLeft = search.cutoffDepth - d;
+            long entry = search.table.probe(s.getHash());
+            int tableMove = -1;
+            if(entry != 0) {
+                int score = tableCutoff(entry, depthLeft, alpha, beta);
+                if(score != NO_CUTOFF) return score;
+                tableMove = TranspositionTable.move(entry);
+            }
+            orderMoves(legal, count, tableMove, d);
+            int alphaOrig = alpha;
+            d++;
+
+            if(count == 0) { // the player in turn has to pass
+                s.changePlayer();
+                int v = minValue(alpha, beta, d);
+                s.changePlayer();
+                return v;
+            }
+
+            int v = Integer.MIN_VALUE;
+            int best = -1;
+            for(int i = 0; i < count; i++) {
+                if(i == 1 && split(depthLeft)) {
+                    int[] values = searchBrothers(legal, count, alpha, beta, d, false);
+                    if(search.aborted) return 0;
+                    for(int j = 1; j < count; j++) {
+                        if(values[j] > v) {
+                            v = values[j];
+                            best = legal[j];
+                        }
+                    }
+                    break;
+                }
+
+                int undo = s.makeMove(legal[i]);
+                int val = minValue(alpha, beta, d);
+                s.undoMove(undo);
+                if(search.aborted) return 0; // the result is not used, and must not be stored
+                if(val > v) {
+                    v = val;
+                    best = legal[i];
+                }
+                if(v >= beta) {
+                    cutoff(best, d - 1, depthLeft, i);
+                    break;
+                }
+                alpha = alpha > v ? alpha : v;
+            }
+
+            store(depthLeft, alphaOrig, beta, v, best);
+            return v;
+        }
+
+        int minValue(int alpha, int beta, int d) {
+            if(outOfTime()) return 0;
+            int[] legal = moves[d];
+            int count = s.legalMoves(legal);
+            if(terminalTest(count)) return utility();
+            if(cutoffTest(d)) return eval();
+
+            int depthLeft = search.cutoffDepth - d;
+            long entry = search.table.probe(s.getHash());
+            int tableMove = -1;
+            if(entry != 0) {
+                int score = tableCutoff(entry, depthLeft, alpha, beta);
+                if(score != NO_CUTOFF) return score;
+                tableMove = TranspositionTable.move(entry);
+            }
+            orderMoves(legal, count, tableMove, d);
+            int betaOrig = beta;
+            d++;
+
+            if(count == 0) { // the player in turn has to pass
+                s.changePlayer();
+                int v = maxValue(alpha, beta, d);
+                s.changePlayer();
+                return v;
+            }
+
+            int v = Integer.MAX_VALUE;
+            int best = -1;
+            for(int i = 0; i < count; i++) {
+                if(i == 1 && split(depthLeft)) {
+                    int[] values = searchBrothers(legal, count, alpha, beta, d, true);
+                    if(search.aborted) return 0;
+                    for(int j = 1; j < count; j++) {
+                        if(values[j] < v) {
+                            v = values[j];
+                            best = legal[j];
+                        }
+                    }
+                    break;
+                }
+
+                int undo = s.makeMove(legal[i]);
+                int val = maxValue(alpha, beta, d);
+                s.undoMove(undo);
+                if(search.aborted) return 0; // the result is not used, and must not be stored
+                if(val < v) {
+                    v = val;
+                    best = legal[i];
+                }
+                if(v <= alpha) {
+                    cutoff(best, d - 1, depthLeft, i);
+                    break;
+                }
+                beta = beta < v ? beta : v;
+            }
+
+            store(depthLeft, alpha, betaOrig, v, best);
+            return v;
+        }
 
-        int[][] board = s.getBoard();
-        int n = board.length;
-        int corner = 4; // just guessing at a weight for corner positions
-        int edge = 2; // just guessing at a weight for edge positions
+        private void orderMoves(int[] legal, int count, int tableMove, int ply) {
+            if(ordering != null) ordering.order(legal, count, tableMove, ply, s.getPlayerInTurn());
+            else moveToFront(legal, count, tableMove);
+        }
 
-        // corner positions, positive if thisPlayer, negative if other, nothing if blank
-        int eval = 0;
-        if(board[0][0] != 0) eval += board[0][0] == thisPlayer ? corner : -corner;
-        if(board[0][n-1] != 0) eval += board[0][n-1] == thisPlayer ? corner : -corner;
-        if(board[n-1][0] != 0) eval += board[n-1][0] == thisPlayer ? corner : -corner;
-        if(board[n-1][n-1] != 0) eval += board[n-1][n-1] == thisPlayer ? corner : -corner;
+        private void cutoff(int move, int ply, int depthLeft, int index) {
+            cutoffs++;
+            if(index == 0) firstMoveCutoffs++;
+            if(ordering != null) ordering.cutoff(move, ply, s.getPlayerInTurn(), depthLeft);
+        }
 
-        // add values for left and right column, excl. corners
-        for(int i = 1; i < n-2; i++) {
-            if(board[i][0] != 0) eval += board[i][0] == thisPlayer ? edge : -edge;
-            if(board[i][n-1] != 0)eval += board[i][n-1] == thisPlayer ? edge : -edge;
+        /**
+         * Returns true if the brothers after the eldest child of a node with depthLeft plies left
+         * should be searched in parallel.
+         */
+        private boolean split(int depthLeft) {
+            return search.pool != null && depthLeft >= SPLIT_DEPTH;
         }
 
-        // add vals for top and bottom row, excl. corners
-        for(int j = 1; j < n-2; j++) {
-            if(board[0][j] != 0) eval += board[0][j] == thisPlayer ? edge : -edge;
-            if(board[n-1][j] != 0) eval += board[n-1][j] == thisPlayer ? edge : -edge;
+        /**
+         * Searches the children for the moves legal[1..count-1] in parallel with the window alpha..beta,
+         * each on its own copy of the state. The children are max nodes if maxChildren is true.
+         * @return the values of the children, at the same indices as their moves
+         */
+        int[] searchBrothers(int[] legal, int count, int alpha, int beta, int d, boolean maxChildren) {
+            BrotherTask[] tasks = new BrotherTask[count - 1];
+            for(int i = 1; i < count; i++)
+                tasks[i - 1] = new BrotherTask(this, legal[i], alpha, beta, d, maxChildren);
+
+            if(ForkJoinTask.getPool() == search.pool) {
+                ForkJoinTask.invokeAll(tasks);
+            } else { // the root, on the caller's thread
+                search.pool.invoke(new RecursiveAction() {
+                    protected void compute() {
+                        invokeAll(tasks);
+                    }
+                });
+            }
+
+            int[] values = new int[count];
+            for(int i = 1; i < count; i++) {
+                values[i] = tasks[i - 1].join();
+                nodes += tasks[i - 1].nodes;
+                cutoffs += tasks[i - 1].cutoffs;
+                firstMoveCutoffs += tasks[i - 1].firstMoveCutoffs;
+            }
+            return values;
+        }
+
+        /**
+         * Counts the node and checks the deadline every DEADLINE_CHECK_NODES nodes.
+         * @return true if the search has to be aborted
+         */
+        private boolean outOfTime() {
+            if((++nodes & (DEADLINE_CHECK_NODES - 1)) == 0 && System.nanoTime() >= search.deadline)
+                search.aborted = true;
+            return search.aborted;
         }
 
-        if(eval > 0) return 1; // this player has more valuable positions
-        else if(eval < 0) return -1; // other player has more valuable positions
+        private static final int NO_CUTOFF = Integer.MIN_VALUE;
 
-        return 0;
+        /**
+         * Returns the score of the table entry if it was searched exactly depthLeft plies deep and its
+         * bound settles the value for the window alpha..beta, otherwise NO_CUTOFF. Deeper entries are
+         * not used for cutoffs, so a search to a fixed depth has the same result however its nodes
+         * are ordered or spread over threads.
+         */
+        private int tableCutoff(long entry, int depthLeft, int alpha, int beta) {
+            if(TranspositionTable.depth(entry) != depthLeft) return NO_CUTOFF;
+
+            // entries are stored from black's point of view, so that they hold whichever player searches
+            int score = TranspositionTable.score(entry);
+            int bound = TranspositionTable.bound(entry);
+            if(search.thisPlayer == 2) {
+                score = -score;
+                if(bound != TranspositionTable.EXACT) bound = bound == TranspositionTable.LOWER ? TranspositionTable.UPPER : TranspositionTable.LOWER;
+            }
+
+            if(bound == TranspositionTable.EXACT) return score;
+            if(bound == TranspositionTable.LOWER && score >= beta) return score;
+            if(bound == TranspositionTable.UPPER && score <= alpha) return score;
+            return NO_CUTOFF;
+        }
+
+        /**
+         * Stores the value v of a node searched depthLeft plies deep with the window alpha..beta in the table.
+         */
+        private void store(int depthLeft, int alpha, int beta, int v, int best) {
+            int bound = TranspositionTable.EXACT;
+            if(v <= alpha) bound = TranspositionTable.UPPER;
+            else if(v >= beta) bound = TranspositionTable.LOWER;
+
+            if(search.thisPlayer == 2) {
+                v = -v;
+                if(bound != TranspositionTable.EXACT) bound = bound == TranspositionTable.LOWER ? TranspositionTable.UPPER : TranspositionTable.LOWER;
+            }
+            search.table.store(s.getHash(), depthLeft, bound, v, best);
+        }
+
+        private boolean cutoffTest(int d) {
+            return d >= search.cutoffDepth;
+        }
+
+        private boolean terminalTest(int legalMoveCount) {
+            return s.isTerminal(legalMoveCount);
+        }
+
+        private int eval() {
+            return search.evaluator.evaluate(s, search.thisPlayer);
+        }
+
+        /**
+         * Returns a utility value based on the winner at this game state, beyond the range of the
+         * evaluation so that a won game is always preferred
+         * @return Evaluator.WIN plus the disc difference if this player is the winner, the negated
+         * value if the other player wins and 0 if it's a tie
+         */
+        private int utility() {
+            int thisPlayer = search.thisPlayer;
+            int other = thisPlayer == 1 ? 2 : 1;
+            int[] tokens = s.countTokens();
+            int diff = tokens[thisPlayer-1] - tokens[other-1];
+
+            if(diff == 0) return 0;
+            else return diff > 0 ? Evaluator.WIN + diff : -Evaluator.WIN + diff;
+        }
+    }
+
+    /**
+     * The searchers of the brother tasks on one thread, which are reused from task to task. A task
+     * that waits for its own brothers can run other tasks on its thread meanwhile, so the tasks on
+     * a thread nest, and each level has its own searcher.
+     */
+    private static final class Workspace {
+        private static final ThreadLocal<Workspace> CURRENT = ThreadLocal.withInitial(Workspace::new);
+
+        private Searcher[] searchers = new Searcher[4];
+        // the number of tasks running on the thread
+        private int level;
+
+        /**
+         * Returns a searcher of the given search on a copy of the state, with no nodes counted.
+         * It is new only for a new search or a deeper iteration.
+         */
+        Searcher acquire(Search search, GameState s) {
+            if(level == searchers.length) searchers = Arrays.copyOf(searchers, 2 * level);
+            Searcher searcher = searchers[level];
+            if(searcher == null || searcher.search != search || searcher.moves.length < search.cutoffDepth + 2) {
+                searcher = searchers[level] = new Searcher(search, new GameState(s), search.cutoffDepth);
+            } else {
+                searcher.s.copyFrom(s);
+                searcher.nodes = searcher.cutoffs = searcher.firstMoveCutoffs = 0;
+            }
+            level++;
+            return searcher;
+        }
+
+        void release() {
+            level--;
+        }
     }
 
     /**
-     * Returns a utility value based on the winner at this game state
-     * @param s terminal game state
-     * @return 1 if this player is the winner, -1 if other player wins and 0 if it's a tie
+     * Searches one younger brother on a copy of the parent's state.
      */
-    private static int utility(GameState s) {
-        int other = thisPlayer == 1 ? 2 : 1;
-        int[] tokens = s.countTokens();
+    private static final class BrotherTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
 
-        if(tokens[thisPlayer-1] == tokens[other-1]) return 0;
-        else return tokens[thisPlayer-1] > tokens[other-1] ? 1 : -1;
+        private final Searcher parent;
+        private final int move, alpha, beta, d;
+        private final boolean max;
+        long nodes, cutoffs, firstMoveCutoffs;
+
+        BrotherTask(Searcher parent, int move, int alpha, int beta, int d, boolean max) {
+            this.parent = parent;
+            this.move = move;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.d = d;
+            this.max = max;
+        }
+
+        protected Integer compute() {
+            // the parent does not change its state until all brothers are done
+            Workspace workspace = Workspace.CURRENT.get();
+            Searcher searcher = workspace.acquire(parent.search, parent.s);
+            try {
+                searcher.s.makeMove(move);
+                int v = max ? searcher.maxValue(alpha, beta, d) : searcher.minValue(alpha, beta, d);
+                nodes = searcher.nodes;
+                cutoffs = searcher.cutoffs;
+                firstMoveCutoffs = searcher.firstMoveCutoffs;
+                return v;
+            } finally {
+                workspace.release();
+            }
+        }
     }
 }
@@ -0,0 +1,22 @@
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * An AI that decides its moves asynchronously, so that the caller (e.g. the event dispatch thread
+ * of the GUI) does not wait for it, and that can be stopped while it decides. Any IOthelloAI can be
+ * used this way with AsyncAI.of.
+ */
+public interface IAsyncOthelloAI extends IOthelloAI {
+
+    /**
+     * Starts deciding the move for the given state on another thread and returns at once.
+     * When the token is cancelled, the AI stops as soon as it can and the future completes with the
+     * best move it found so far, or is cancelled if it has none. Cancelling the future cancels the
+     * token too.
+     * @param s The current state of the game in which it should be the AI's turn. It is copied, so
+     * the caller may change it while the AI decides.
+     * @return the future position where the AI wants to put its token
+     */
+    CompletableFuture<Position> decideMoveAsync(GameState s, CancellationToken token);
+}
@@ -0,0 +1,23 @@
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * An AI that can think on the opponent's time (pondering). After its move has been made, the game
+ * calls startPondering with the new state, and the AI searches in the background until its next
+ * decideMove (which stops the pondering and makes use of it) or stopPondering. A game that does not
+ * call these methods plays with the AI as with any IOthelloAI.
+ */
+public interface IPonderingAI extends IOthelloAI {
+
+    /**
+     * Starts pondering on the given state, in which the opponent is usually in turn. Pondering
+     * that is still running is stopped first. Returns without waiting for the search, but may wait
+     * for a decision of the AI that is running, so a GUI calls it off its event thread.
+     * @param s the state after the AI's move; it is not changed
+     */
+    void startPondering(GameState s);
+
+    /**
+     * Stops the pondering, if any, and waits until the background search has stopped.
+     */
+    void stopPondering();
+}
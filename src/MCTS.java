@@ -0,0 +1,493 @@
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Monte Carlo Tree Search with UCT: instead of searching to a fixed depth and evaluating, it plays
+ * random games (playouts) from the leaves of a tree that grows towards the moves that win most
+ * often. At a node it follows the child with the highest win rate plus an exploration bonus for
+ * children with few visits, plays out a random game from the leaf it reaches, and adds the result
+ * to the nodes on the way. The move played is the most visited child of the root.
+ * All threads work on the same tree (tree parallelism). The statistics of a node are one atomic
+ * long (visits and score), so they are updated without locks; a visit is counted on the way down
+ * and the score on the way up, so a node that other threads are playing out looks like a loss
+ * for a while (virtual loss) and the threads spread over the tree. A node gets its children,
+ * by one thread, once it has been visited EXPAND_VISITS times.
+ * The nodes are kept in preallocated arrays (an arena), so the search does not allocate; the
+ * playouts make and take back the moves on a bitboard. After a decision, the subtree of the
+ * state reached after the opponent's reply is kept for the next decision: it is copied to the
+ * start of a second arena, which then becomes the tree.
+ * It can be used as a search engine of SmarterAI (-Dothello.engine=MCTS) or as an AI on its own.
+ */
+public class MCTS implements SearchEngine, IOthelloAI {
+    public static final int DEFAULT_MAX_NODES = 1 << 20;
+    public static final int DEFAULT_PLAYOUTS = 100_000;
+    public static final double DEFAULT_EXPLORATION = 1.0;
+    // a node gets its children once it has been visited this often, so that leaves visited only
+    // once do not take up nodes
+    public static final int EXPAND_VISITS = 2;
+    // the move of a node reached by a pass
+    static final int PASS = -1;
+    // the expansion state of a node
+    private static final int LEAF = 0, EXPANDING = 1, EXPANDED = 2;
+    // the score of a playout for the player who made the move into a node, in half points
+    private static final int WIN = 2, DRAW = 1;
+    // the threads of all instances; idle threads end after a while, so instances need no shutdown
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "MCTS-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private int maxNodes = DEFAULT_MAX_NODES;
+    private int playouts = DEFAULT_PLAYOUTS;
+    private double exploration = DEFAULT_EXPLORATION;
+    // the time budget of decision(GameState), null to run a fixed number of playouts
+    private Duration timeBudget;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Worker[] workers;
+
+    // the tree, the arena the next tree is copied to, and the state at the root of the tree
+    private Tree tree, spare;
+    private GameState rootState;
+    private volatile long deadline;
+    private volatile boolean stopped;
+
+    private final List<SearchListener> listeners = new CopyOnWriteArrayList<>();
+    private SearchStats stats;
+
+    /**
+     * Sets the number of nodes of each of the two arenas; the tree does not grow beyond it.
+     */
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+        tree = spare = null;
+        rootState = null;
+    }
+
+    /**
+     * Sets the number of playouts of decisions without a time budget.
+     */
+    public void setPlayouts(int playouts) {
+        this.playouts = playouts;
+    }
+
+    /**
+     * Sets the weight of the exploration bonus: higher values try moves with few visits more often.
+     */
+    public void setExploration(double exploration) {
+        this.exploration = exploration;
+    }
+
+    /**
+     * Sets the time budget of decision(GameState) and decideMove. With null (the default)
+     * decision(GameState) runs a fixed number of playouts instead, and decideMove uses
+     * SmarterAI.DEFAULT_TIME_BUDGET.
+     */
+    public void setTimeBudget(Duration timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void addListener(SearchListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SearchListener listener) {
+        listeners.remove(listener);
+    }
+
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    public boolean canStop() {
+        return true;
+    }
+
+    public Position decideMove(GameState s) {
+        return decision(s, timeBudget != null ? timeBudget : SmarterAI.DEFAULT_TIME_BUDGET);
+    }
+
+    /**
+     * Runs the playouts within the time budget if one is set, and otherwise the fixed number of
+     * playouts.
+     */
+    public Position decision(GameState s) {
+        if(timeBudget != null) return decision(s, timeBudget);
+        return search(s, Long.MAX_VALUE, playouts);
+    }
+
+    /**
+     * Runs playouts until the budget is used up.
+     */
+    public Position decision(GameState s, Duration budget) {
+        return search(s, System.nanoTime() + budget.toNanos(), Long.MAX_VALUE);
+    }
+
+    private Position search(GameState s, long deadline, long maxPlayouts) {
+        stats = new SearchStats(getClass().getSimpleName(), s, null, listeners);
+        int[] legal = new int[s.getSize()*s.getSize()];
+        int count = s.legalMoves(legal);
+        if(count <= 1) return stats.finish(count == 0 ? null : s.position(legal[0]));
+
+        this.deadline = deadline;
+        this.stopped = false;
+        setRoot(s);
+        tree.expand(0, s.getBitBoard(), s.getPlayerInTurn(), legal);
+
+        if(workers == null || workers.length != threads) {
+            workers = new Worker[threads];
+            for(int i = 0; i < threads; i++) workers[i] = new Worker(i);
+        }
+        Future<?>[] tasks = new Future<?>[threads];
+        for(int i = 0; i < threads; i++) {
+            Worker w = workers[i];
+            w.start(s, (maxPlayouts + i) / threads);
+            tasks[i] = pool.submit(w);
+        }
+        long total = 0;
+        int depth = 0;
+        for(int i = 0; i < threads; i++) {
+            try {
+                tasks[i].get();
+            } catch(InterruptedException e) {
+                stopped = true;
+                Thread.currentThread().interrupt();
+            } catch(ExecutionException e) {
+                throw new IllegalStateException("MCTS worker failed", e.getCause());
+            }
+            total += workers[i].playouts;
+            depth = Math.max(depth, workers[i].maxDepth);
+        }
+
+        // the most visited child of the root; its win rate in per mille as the value
+        int best = tree.firstChild[0];
+        for(int c = best + 1; c < tree.firstChild[0] + tree.childCount[0]; c++)
+            if(Tree.visits(tree.stats.get(c)) > Tree.visits(tree.stats.get(best))) best = c;
+        long st = tree.stats.get(best);
+        int value = (int) (Tree.score(st) * 500L / Math.max(1, Tree.visits(st)));
+        stats.iteration(depth, true, value, tree.move[best], total, 0, 0);
+        return stats.finish(s.position(tree.move[best]));
+    }
+
+    /**
+     * Makes the node of the given state the root, keeping its subtree if it is in the tree
+     * within 3 plies of the old root (our move, a pass, the reply), and starting a new tree otherwise.
+     */
+    private void setRoot(GameState s) {
+        if(tree == null) {
+            tree = new Tree(maxNodes);
+            spare = new Tree(maxNodes);
+        }
+        int node = -1;
+        if(rootState != null && rootState.getSize() == s.getSize())
+            node = find(0, new GameState(rootState), s, 3);
+        if(node < 0) {
+            tree.clear();
+        } else if(node > 0) {
+            spare.copySubtree(tree, node);
+            Tree t = tree;
+            tree = spare;
+            spare = t;
+        }
+        rootState = new GameState(s);
+    }
+
+    private int find(int node, GameState state, GameState target, int depthLeft) {
+        if(state.getHash() == target.getHash() && state.getEmptyCount() == target.getEmptyCount()) return node;
+        if(depthLeft == 0 || tree.state.get(node) != EXPANDED) return -1;
+        for(int c = tree.firstChild[node]; c < tree.firstChild[node] + tree.childCount[node]; c++) {
+            int m = tree.move[c];
+            int undo = 0;
+            if(m == PASS) state.changePlayer();
+            else undo = state.makeMove(m);
+            int found = find(c, state, target, depthLeft - 1);
+            if(m == PASS) state.changePlayer();
+            else state.undoMove(undo);
+            if(found >= 0) return found;
+        }
+        return -1;
+    }
+
+    /**
+     * The nodes of a tree, as arrays indexed by node; the children of a node are consecutive.
+     */
+    private static final class Tree {
+        final int capacity;
+        final int[] move;
+        final int[] firstChild;
+        final int[] childCount;  // valid once the state is EXPANDED
+        final AtomicIntegerArray state;
+        // visits in the high 32 bits, score (half points) in the low 32 bits
+        final AtomicLongArray stats;
+        final AtomicInteger next = new AtomicInteger();
+        // the index in the source tree of each node, used by copySubtree
+        private int[] source;
+
+        Tree(int capacity) {
+            this.capacity = capacity;
+            move = new int[capacity];
+            firstChild = new int[capacity];
+            childCount = new int[capacity];
+            state = new AtomicIntegerArray(capacity);
+            stats = new AtomicLongArray(capacity);
+        }
+
+        static int visits(long stats) {
+            return (int) (stats >>> 32);
+        }
+
+        static int score(long stats) {
+            return (int) stats;
+        }
+
+        /**
+         * Removes all nodes but a new root.
+         */
+        void clear() {
+            init(0, PASS);
+            next.set(1);
+        }
+
+        private void init(int node, int m) {
+            move[node] = m;
+            childCount[node] = 0;
+            stats.set(node, 0);
+            state.set(node, LEAF);
+        }
+
+        /**
+         * Gives the node its children for the moves of the given player on the board: one per
+         * legal move, one pass if only the opponent can move, none if the game is finished.
+         * The node stays a leaf if the tree is full.
+         * @param legal buffer for the legal moves, with room for all squares
+         */
+        void expand(int node, BitBoard board, int player, int[] legal) {
+            if(state.get(node) == EXPANDED) return;
+            if(next.get() >= capacity) { // full: the node stays a leaf
+                state.set(node, LEAF);
+                return;
+            }
+            int n = board.legalMoves(player, legal);
+            if(n == 0 && board.hasLegalMove(3 - player)) {
+                legal[0] = PASS;
+                n = 1;
+            }
+            if(next.get() + n > capacity) { // full: the node stays a leaf
+                state.set(node, LEAF);
+                return;
+            }
+            int first = next.getAndAdd(n);
+            if(first + n > capacity) {
+                state.set(node, LEAF);
+                return;
+            }
+            for(int i = 0; i < n; i++) init(first + i, legal[i]);
+            firstChild[node] = first;
+            childCount[node] = n;
+            state.set(node, EXPANDED); // publishes the children to the other threads
+        }
+
+        /**
+         * Replaces this tree by a copy of the subtree of the given node of src, with that node as
+         * the root. Nodes are visited breadth first, so the children stay consecutive.
+         */
+        void copySubtree(Tree src, int root) {
+            if(source == null) source = new int[capacity];
+            source[0] = root;
+            int end = 1;
+            for(int i = 0; i < end; i++) {
+                int s = source[i];
+                move[i] = src.move[s];
+                stats.set(i, src.stats.get(s));
+                if(src.state.get(s) == EXPANDED) {
+                    int n = src.childCount[s];
+                    for(int k = 0; k < n; k++) source[end + k] = src.firstChild[s] + k;
+                    firstChild[i] = end;
+                    childCount[i] = n;
+                    state.set(i, EXPANDED);
+                    end += n;
+                } else {
+                    childCount[i] = 0;
+                    state.set(i, LEAF);
+                }
+            }
+            move[0] = PASS;
+            next.set(end);
+        }
+    }
+
+    /**
+     * One searching thread. Its buffers are kept between decisions, so a playout does not allocate.
+     */
+    private final class Worker implements Runnable {
+        // sized for the board of the latest decision by start
+        private int[] path;
+        private int[] movers;
+        private int[] made;    // moves made on the board, as square | player << 16
+        private int[] buffer;
+        private long random;
+        private BitBoard board;
+        private int rootPlayer;
+        private long limit;
+        long playouts;
+        int maxDepth;
+
+        Worker(int id) {
+            random = 0x9E3779B97F4A7C15L * (id + 1);
+        }
+
+        void start(GameState s, long limit) {
+            int squares = s.getSize() * s.getSize();
+            if(buffer == null || buffer.length != squares) {
+                // a path can have a pass after every move
+                path = new int[2 * squares + 2];
+                movers = new int[2 * squares + 2];
+                made = new int[squares + 2];
+                buffer = new int[squares];
+            }
+            board = s.getBitBoard().copy();
+            rootPlayer = s.getPlayerInTurn();
+            this.limit = limit;
+            playouts = 0;
+            maxDepth = 0;
+        }
+
+        public void run() {
+            while(playouts < limit && !stopped && System.nanoTime() < deadline) {
+                iteration();
+                playouts++;
+            }
+        }
+
+        /**
+         * Selects a leaf, expands it if it has been visited often enough, plays out a random game
+         * from it and adds the result to the nodes on the path.
+         */
+        private void iteration() {
+            Tree t = tree;
+            int node = 0, depth = 0, moves = 0;
+            int player = rootPlayer;
+            t.stats.addAndGet(0, 1L << 32);
+            while(true) {
+                int st = t.state.get(node);
+                if(st != EXPANDED) {
+                    long s = t.stats.get(node);
+                    if(st == LEAF && Tree.visits(s) >= EXPAND_VISITS && t.state.compareAndSet(node, LEAF, EXPANDING))
+                        t.expand(node, board, player, buffer);
+                    if(t.state.get(node) != EXPANDED) break;
+                }
+                if(t.childCount[node] == 0) break; // the game is finished
+
+                int child = select(t, node);
+                t.stats.addAndGet(child, 1L << 32); // the visit, a loss until the score is added
+                int m = t.move[child];
+                if(m != PASS) {
+                    board.make(m, player);
+                    made[moves++] = m | player << 16;
+                }
+                path[++depth] = child;
+                movers[depth] = player;
+                player = 3 - player;
+                node = child;
+            }
+            if(depth > maxDepth) maxDepth = depth;
+
+            int result = playout(player, moves);
+            for(int i = 1; i <= depth; i++) {
+                int score = result == 0 ? DRAW : (result > 0) == (movers[i] == 1) ? WIN : 0;
+                if(score != 0) t.stats.addAndGet(path[i], score);
+            }
+            for(int i = moves - 1; i >= 0; i--) board.unmake(made[i] & 0xFFFF, made[i] >>> 16);
+        }
+
+        /**
+         * Returns the child with the highest upper confidence bound: win rate plus
+         * exploration * sqrt(ln(visits of the node) / visits of the child). Unvisited children first.
+         */
+        private int select(Tree t, int node) {
+            int first = t.firstChild[node], end = first + t.childCount[node];
+            double logVisits = Math.log(Math.max(1, Tree.visits(t.stats.get(node))));
+            int best = first;
+            double bestBound = Double.NEGATIVE_INFINITY;
+            for(int c = first; c < end; c++) {
+                long s = t.stats.get(c);
+                int n = Tree.visits(s);
+                if(n == 0) return c;
+                double bound = Tree.score(s) / (2.0 * n) + exploration * Math.sqrt(logVisits / n);
+                if(bound > bestBound) {
+                    bestBound = bound;
+                    best = c;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Plays random moves from the board for the given player to the end of the game, and takes
+         * them back again.
+         * @param moves the number of moves already on the made stack
+         * @return black's tokens minus white's tokens at the end
+         */
+        private int playout(int player, int moves) {
+            int start = moves;
+            int passes = 0;
+            while(passes < 2) {
+                int sq = randomMove(player);
+                if(sq < 0) {
+                    passes++;
+                } else {
+                    passes = 0;
+                    board.make(sq, player);
+                    made[moves++] = sq | player << 16;
+                }
+                player = 3 - player;
+            }
+            int result = board.count(1) - board.count(2);
+            for(int i = moves - 1; i >= start; i--) board.unmake(made[i] & 0xFFFF, made[i] >>> 16);
+            return result;
+        }
+
+        /**
+         * Returns a random legal move of the player, or -1 if there is none.
+         */
+        private int randomMove(int player) {
+            if(board instanceof BitBoard64) {
+                long mask = ((BitBoard64) board).moveMask(player);
+                if(mask == 0) return -1;
+                for(int k = nextInt(Long.bitCount(mask)); k > 0; k--) mask &= mask - 1;
+                return Long.numberOfTrailingZeros(mask);
+            }
+            int n = board.legalMoves(player, buffer);
+            return n == 0 ? -1 : buffer[nextInt(n)];
+        }
+
+        /**
+         * xorshift64*, without the allocation and contention of a shared Random.
+         */
+        private int nextInt(int bound) {
+            random ^= random >>> 12;
+            random ^= random << 25;
+            random ^= random >>> 27;
+            return (int) (((random * 0x2545F4914F6CDD1DL) >>> 33) % bound);
+        }
+    }
+}
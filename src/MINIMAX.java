@@ -3,16 +3,28 @@
  * @version 7.3.2019
  * Implementation of the MINIMAX algorithm as it is given in the pseudocode in RN p. 166
  */
-public class MINIMAX {
-    private static int thisPlayer;
-    public static Position decision(GameState s) {
+public class MINIMAX implements SearchEngine {
+    // the player searching, set by each search; an instance searches one state at a time
+    private int thisPlayer;
+    // one buffer of legal moves per ply, so that the search does not allocate move lists
+    private int[][] moves;
+    public Position decision(GameState s) {
         thisPlayer = s.getPlayerInTurn();
+        // the search makes and takes back moves on one copy instead of creating a state per child
+        GameState state = new GameState(s);
 
-        Position move = null;
+        int n = s.getSize();
+        // every ply either fills a square or is a pass followed by a move
+        moves = new int[2*state.getEmptyCount() + 2][n*n];
+        int move = -1;
         int max_value = Integer.MIN_VALUE;
 
-        for(Position p : s.legalMoves()) {
-            int val = minValue(result(s, p));
+        int count = state.legalMoves(moves[0]);
+        for(int i = 0; i < count; i++) {
+            int p = moves[0][i];
+            int undo = state.makeMove(p);
+            int val = minValue(state, 1);
+            state.undoMove(undo);
 
             if(val >= max_value) {
                 max_value = val;
@@ -20,42 +32,58 @@ public class MINIMAX {
             }
         }
 
-        return move;
+        return move < 0 ? null : state.position(move);
     }
 
-    private static GameState result(GameState s, Position p) {
-        GameState n = new GameState(s.getBoard(), s.getPlayerInTurn());
-        n.insertToken(p);
-        return n;
-    }
+    private int maxValue(GameState s, int ply) {
+        int[] legal = moves[ply];
+        int count = s.legalMoves(legal);
+        if(terminalTest(s, count)) return utility(s);
 
-    private static int maxValue(GameState s) {
-        if(terminalTest(s)) return utility(s);
+        if(count == 0) { // the player in turn has to pass
+            s.changePlayer();
+            int v = minValue(s, ply + 1);
+            s.changePlayer();
+            return v;
+        }
 
         int v = Integer.MIN_VALUE;
-        for(Position p : s.legalMoves()) {
-            v = Math.max(v, minValue(result(s, p)));
+        for(int i = 0; i < count; i++) {
+            int undo = s.makeMove(legal[i]);
+            v = Math.max(v, minValue(s, ply + 1));
+            s.undoMove(undo);
         }
 
         return v;
     }
 
-    private static int minValue(GameState s) {
-        if(terminalTest(s)) return utility(s);
+    private int minValue(GameState s, int ply) {
+        int[] legal = moves[ply];
+        int count = s.legalMoves(legal);
+        if(terminalTest(s, count)) return utility(s);
+
+        if(count == 0) { // the player in turn has to pass
+            s.changePlayer();
+            int v = maxValue(s, ply + 1);
+            s.changePlayer();
+            return v;
+        }
 
         int v = Integer.MAX_VALUE;
-        for(Position p : s.legalMoves()) {
-            v = Math.min(v, maxValue(result(s, p)));
+        for(int i = 0; i < count; i++) {
+            int undo = s.makeMove(legal[i]);
+            v = Math.min(v, maxValue(s, ply + 1));
+            s.undoMove(undo);
         }
 
         return v;
     }
 
-    private static boolean terminalTest(GameState s) {
-        return s.isFinished();
+    private boolean terminalTest(GameState s, int legalMoveCount) {
+        return s.isTerminal(legalMoveCount);
     }
 
-    public static int utility(GameState s) {
+    public int utility(GameState s) {
         int other = thisPlayer == 1 ? 2 : 1;
         int[] tokens = s.countTokens();
 
@@ -4,17 +4,33 @@
  * Implementation of the MINIMAX algorithm with alpha-beta pruning as it is given in RN p. 170
  */
 
-public class MINIMAXAB {
-    private static int thisPlayer;
+public class MINIMAXAB implements SearchEngine {
+    // the player searching, set by each search; an instance searches one state at a time
+    private int thisPlayer;
+    // one buffer of legal moves per ply, so that the search does not allocate move lists
+    private int[][] moves;
+
+    public Position decision(GameState s) {
+        return alphaBetaSearch(s);
+    }
 
-    public static Position alphaBetaSearch(GameState s) {
+    public Position alphaBetaSearch(GameState s) {
         thisPlayer = s.getPlayerInTurn();
+        // the search makes and takes back moves on one copy instead of creating a state per child
+        GameState state = new GameState(s);
 
-        Position move = null;
+        int n = s.getSize();
+        // every ply either fills a square or is a pass followed by a move
+        moves = new int[2*state.getEmptyCount() + 2][n*n];
+        int move = -1;
         int max_value = Integer.MIN_VALUE;
 
-        for(Position p : s.legalMoves()) {
-            int val = minValue(result(s, p), Integer.MIN_VALUE, Integer.MAX_VALUE);
+        int count = state.legalMoves(moves[0]);
+        for(int i = 0; i < count; i++) {
+            int p = moves[0][i];
+            int undo = state.makeMove(p);
+            int val = minValue(state, Integer.MIN_VALUE, Integer.MAX_VALUE, 1);
+            state.undoMove(undo);
 
             if(val >= max_value) {
                 max_value = val;
@@ -22,21 +38,26 @@ public class MINIMAXAB {
             }
         }
 
-        return move;
+        return move < 0 ? null : state.position(move);
     }
 
-    private static GameState result(GameState s, Position p) {
-        GameState n = new GameState(s.getBoard(), s.getPlayerInTurn());
-        n.insertToken(p);
-        return n;
-    }
+    private int maxValue(GameState s, int alpha, int beta, int ply) {
+        int[] legal = moves[ply];
+        int count = s.legalMoves(legal);
+        if(terminalTest(s, count)) return utility(s);
 
-    private static int maxValue(GameState s, int alpha, int beta) {
-        if(terminalTest(s)) return utility(s);
+        if(count == 0) { // the player in turn has to pass
+            s.changePlayer();
+            int v = minValue(s, alpha, beta, ply + 1);
+            s.changePlayer();
+            return v;
+        }
 
         int v = Integer.MIN_VALUE;
-        for(Position p : s.legalMoves()) {
-            v = Math.max(v, minValue(result(s, p), alpha, beta));
+        for(int i = 0; i < count; i++) {
+            int undo = s.makeMove(legal[i]);
+            v = Math.max(v, minValue(s, alpha, beta, ply + 1));
+            s.undoMove(undo);
 
             if(v >= beta) return v;
             alpha = alpha > v ? alpha : v;
@@ -45,12 +66,23 @@ public class MINIMAXAB {
         return v;
     }
 
-    private static int minValue(GameState s, int alpha, int beta) {
-        if(terminalTest(s)) return utility(s);
+    private int minValue(GameState s, int alpha, int beta, int ply) {
+        int[] legal = moves[ply];
+        int count = s.legalMoves(legal);
+        if(terminalTest(s, count)) return utility(s);
+
+        if(count == 0) { // the player in turn has to pass
+            s.changePlayer();
+            int v = maxValue(s, alpha, beta, ply + 1);
+            s.changePlayer();
+            return v;
+        }
 
         int v = Integer.MAX_VALUE;
-        for(Position p : s.legalMoves()) {
-            v = Math.min(v, maxValue(result(s, p), alpha, beta));
+        for(int i = 0; i < count; i++) {
+            int undo = s.makeMove(legal[i]);
+            v = Math.min(v, maxValue(s, alpha, beta, ply + 1));
+            s.undoMove(undo);
 
             if(v <= alpha) return v;
             beta = beta < v ? beta : v;
@@ -59,11 +91,11 @@ public class MINIMAXAB {
         return v;
     }
 
-    private static boolean terminalTest(GameState s) {
-        return s.isFinished();
+    private boolean terminalTest(GameState s, int legalMoveCount) {
+        return s.isTerminal(legalMoveCount);
     }
 
-    public static int utility(GameState s) {
+    public int utility(GameState s) {
         int other = thisPlayer == 1 ? 2 : 1;
         int[] tokens = s.countTokens();
 
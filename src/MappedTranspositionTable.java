@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Transposition table kept in a memory-mapped file, so that the results of earlier searches survive
+ * restarts of the program and can be shared by several processes on the same machine. The slots
+ * are the same as in TranspositionTable, and the check of the hash against the data of an entry
+ * also rejects entries torn by another process writing at the same time.
+ * The file has a fixed layout, all little-endian:
+ *   header (64 bytes): magic "OTTT", version, board size, number of entries (a power of two)
+ *                      (ints), Zobrist seed (long), search generation (int), owner (32 bytes,
+ *                      ASCII, padded with zeros)
+ *   slots: key (hash xor data), data (longs), per entry
+ * The owner names what searched the results (the engine and its evaluation, see
+ * SearchEngine.getTableOwner), since the scores of different engines and weights do not mean the
+ * same. A file is only used for the board size, Zobrist seed and owner it
+ * was created for. The generation goes on from run to run, so the entries of earlier runs are
+ * replaced first. TableTool shows, ages and compacts table files.
+ */
+public class MappedTranspositionTable extends TranspositionTable {
+    public static final int MAGIC = 0x4F545454; // "OTTT"
+    public static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int OWNER_BYTES = 32;
+    // the largest number of entries, so that the file can be mapped as one buffer
+    static final int MAX_ENTRIES = 1 << 26;
+
+    private static final ConcurrentHashMap<Path, MappedTranspositionTable> tables = new ConcurrentHashMap<>();
+
+    private final MappedByteBuffer buffer;
+    private final LongBuffer slots;
+    private final int size;
+    private final String owner;
+
+    private MappedTranspositionTable(MappedByteBuffer buffer, int entries, int size, String owner) {
+        super(entries);
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.slots = buffer.duplicate().position(HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        this.size = size;
+        this.owner = owner;
+        this.generation = buffer.getInt(24) & 0x1F;
+    }
+
+    /**
+     * Maps the table file, creating it with at most the given number of bytes of entries if it
+     * does not exist.
+     * @throws IOException if it cannot be read or created, or is not a table of this version for
+     * the given board size, owner and the current Zobrist seed (the file is then left as it is)
+     */
+    public static MappedTranspositionTable open(Path file, int size, String owner, long bytes) throws IOException {
+        if(!Files.exists(file) || Files.size(file) == 0) create(file, size, owner, bytes);
+        MappedTranspositionTable table = open(file);
+        if(table.size != size) throw new IOException("Table " + file + " is for " + table.size + "x" + table.size + " boards, not " + size + "x" + size);
+        if(!table.owner.equals(owner)) throw new IOException("Table " + file + " belongs to " + table.owner + ", not " + owner);
+        return table;
+    }
+
+    /**
+     * Same as open(Path, int, String, long), but maps each file only once per process and shares
+     * the table between all callers.
+     */
+    public static MappedTranspositionTable forFile(Path file, int size, String owner, long bytes) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        MappedTranspositionTable table = tables.get(key);
+        if(table == null) {
+            table = open(key, size, owner, bytes);
+            MappedTranspositionTable other = tables.putIfAbsent(key, table);
+            if(other != null) table = other;
+        }
+        if(table.size != size || !table.owner.equals(owner))
+            throw new IOException("Table " + file + " is for " + table.size + "x" + table.size + " boards and " + table.owner);
+        return table;
+    }
+
+    /**
+     * Maps an existing table file, checking only that it is a valid table of this version for the
+     * current Zobrist seed.
+     */
+    static MappedTranspositionTable open(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            if(length < HEADER_BYTES) throw new IOException("Not a transposition table: " + file);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(length, Integer.MAX_VALUE));
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if(buffer.getInt(0) != MAGIC) throw new IOException("Not a transposition table: " + file);
+            if(buffer.getInt(4) != VERSION) throw new IOException("Unsupported transposition table version " + buffer.getInt(4) + ": " + file);
+            int size = buffer.getInt(8);
+            int entries = buffer.getInt(12);
+            if(size < 1 || entries < 1 || entries > MAX_ENTRIES || Integer.bitCount(entries) != 1
+                    || length != HEADER_BYTES + (long) entries * BYTES_PER_ENTRY)
+                throw new IOException("Corrupt transposition table: " + file);
+            if(buffer.getLong(16) != Zobrist.SEED)
+                throw new IOException("Transposition table " + file + " was made with other Zobrist keys");
+            byte[] name = new byte[OWNER_BYTES];
+            buffer.duplicate().position(28).get(name);
+            int n = 0;
+            while(n < OWNER_BYTES && name[n] != 0) n++;
+            return new MappedTranspositionTable(buffer, entries, size, new String(name, 0, n, StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Writes an empty table file with at most the given number of bytes of entries.
+     */
+    static void create(Path file, int size, String owner, long bytes) throws IOException {
+        int entries = entriesFor(bytes, MAX_ENTRIES);
+        byte[] name = owner.getBytes(StandardCharsets.US_ASCII);
+        if(name.length > OWNER_BYTES) throw new IllegalArgumentException("Owner name too long: " + owner);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(entries).putLong(Zobrist.SEED).putInt(0).put(name);
+        header.clear();
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(header.hasRemaining()) channel.write(header);
+            // the slots are zeros (empty) in the sparse file
+            channel.truncate(HEADER_BYTES);
+            channel.write(ByteBuffer.allocate(1), HEADER_BYTES + (long) entries * BYTES_PER_ENTRY - 1);
+        }
+    }
+
+    long key(int i) {
+        return slots.get(2 * i);
+    }
+
+    long data(int i) {
+        return slots.get(2 * i + 1);
+    }
+
+    void put(int i, long key, long d) {
+        slots.put(2 * i + 1, d);
+        slots.put(2 * i, key);
+    }
+
+    /**
+     * Starts a new search, and records its generation in the file.
+     */
+    public void newSearch() {
+        super.newSearch();
+        buffer.putInt(24, generation);
+    }
+
+    public void clear() {
+        for(int i = 0; i < 2 * getEntryCount(); i++) slots.put(i, 0);
+        resetStats();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Writes the changes to the file on disk; otherwise the operating system writes them when it
+     * sees fit (they are visible to other processes mapping the file at once either way).
+     */
+    public void force() {
+        buffer.force();
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Orders the moves of a node so that alpha-beta finds cutoffs early: first the best move stored
+ * in the transposition table, then the killer moves of the ply (moves that recently caused a
+ * cutoff at the same ply), and then the other moves by their history score (how often and how
+ * deep they caused cutoffs) and by the static priority of their square (corners first, squares
+ * next to a corner last).
+ * An instance belongs to one searching thread.
+ */
+public class MoveOrdering {
+    private static final int TABLE_MOVE_SCORE = Integer.MAX_VALUE;
+    private static final int KILLER_SCORE = Integer.MAX_VALUE - 2;
+    // the square priority only breaks ties between equal history scores, and must be below this
+    private static final int PRIORITY_RANGE = 16;
+
+    private final int[] priority;
+    private final int[][] killers;   // two per ply, the latest first
+    private final int[][] history;   // per player (index 0 for black) and square
+    private final int[] scores;
+
+    /**
+     * @param size the number of columns and rows of the board
+     * @param maxPly the highest ply the search reaches
+     */
+    public MoveOrdering(int size, int maxPly) {
+        priority = squarePriority(size);
+        killers = new int[maxPly + 1][2];
+        for(int[] k : killers) k[0] = k[1] = -1;
+        history = new int[2][size * size];
+        scores = new int[size * size];
+    }
+
+    /**
+     * Sorts the first count moves so that the most promising one comes first.
+     * @param tableMove the best move stored in the transposition table, or -1
+     * @param ply the ply of the node, for the killer moves
+     * @param player the player in turn, for the history scores
+     */
+    public void order(int[] moves, int count, int tableMove, int ply, int player) {
+        int[] hist = history[player - 1];
+        int[] killer = killers[ply];
+        for(int i = 0; i < count; i++) {
+            int m = moves[i];
+            if(m == tableMove) scores[i] = TABLE_MOVE_SCORE;
+            else if(m == killer[0]) scores[i] = KILLER_SCORE;
+            else if(m == killer[1]) scores[i] = KILLER_SCORE - 1;
+            else scores[i] = Math.min(hist[m], (KILLER_SCORE - 2) / PRIORITY_RANGE - 1) * PRIORITY_RANGE + priority[m];
+        }
+
+        // insertion sort, the lists are short
+        for(int i = 1; i < count; i++) {
+            int m = moves[i];
+            int sc = scores[i];
+            int j = i - 1;
+            while(j >= 0 && scores[j] < sc) {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves[j + 1] = m;
+            scores[j + 1] = sc;
+        }
+    }
+
+    /**
+     * Records that the given move caused a cutoff at the given ply, in a node that had depthLeft
+     * plies left to search.
+     */
+    public void cutoff(int move, int ply, int player, int depthLeft) {
+        int[] killer = killers[ply];
+        if(killer[0] != move) {
+            killer[1] = killer[0];
+            killer[0] = move;
+        }
+        history[player - 1][move] += depthLeft * depthLeft;
+    }
+
+    /**
+     * Returns the static priority of each square, from 0 (worst) to PRIORITY_RANGE-1 (best):
+     * corners are best, and the squares next to a corner worst, since they give the opponent
+     * access to the corner.
+     */
+    static int[] squarePriority(int size) {
+        int[] p = new int[size * size];
+        int last = size - 1;
+        for(int c = 0; c < size; c++) {
+            for(int r = 0; r < size; r++) {
+                int ring = Math.min(Math.min(c, r), Math.min(last - c, last - r));
+                boolean cornerC = (c == 0 || c == last);
+                boolean cornerR = (r == 0 || r == last);
+                boolean nearC = (c <= 1 || c >= last - 1);
+                boolean nearR = (r <= 1 || r >= last - 1);
+
+                int value;
+                if(cornerC && cornerR) value = 15;                  // corner
+                else if(nearC && nearR && ring == 1) value = 0;      // X-square, diagonal to a corner
+                else if(nearC && nearR) value = 2;                   // C-square, on the edge next to a corner
+                else if(ring == 0) value = 11;                       // other edge squares
+                else if(ring == 1) value = 4;                        // next to an edge
+                else value = 8;                                      // center
+                p[c * size + r] = value;
+            }
+        }
+        return p;
+    }
+}
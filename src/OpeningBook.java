@@ -0,0 +1,234 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Opening book: results of earlier games per position, for playing the opening without searching.
+ * A position is keyed by its canonical hash: the smallest Zobrist hash of the 8 symmetric
+ * boards (rotations and reflections) with the same player in turn, so all symmetric positions
+ * share one entry. For every position reached by a move in the book games the book holds the
+ * number of games and the sum of their final disc differences from the view of the player who
+ * made the move. A move is chosen by looking up the position after each legal move, and taking
+ * the one with the best average result of those played in at least minGames games. Symmetric
+ * moves and moves that transpose into the same position share their results.
+ * The book file (see BookBuilder) is an open-addressing hash table that is memory-mapped as it
+ * is, so opening it does not read it and a lookup reads one or a few entries per legal move:
+ *   header: magic "OTPB", version, board size, number of slots (a power of two), number of entries
+ *   slots: key (long, 0 for an empty slot), games (int), sum of results (int), little-endian
+ * An entry is in the first empty slot from key & (slots-1) on.
+ */
+public class OpeningBook {
+    public static final int MAGIC = 0x4F545042; // "OTPB"
+    public static final int VERSION = 1;
+    public static final int DEFAULT_MIN_GAMES = 2;
+    static final int HEADER_BYTES = 32;
+    static final int ENTRY_BYTES = 16;
+
+    private static final ConcurrentHashMap<Path, OpeningBook> books = new ConcurrentHashMap<>();
+    // square permutations of the 8 symmetries, per board size
+    private static final ConcurrentHashMap<Integer, int[][]> symmetries = new ConcurrentHashMap<>();
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int mask;
+    private final int entries;
+    private volatile int minGames = DEFAULT_MIN_GAMES;
+
+    private OpeningBook(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not an opening book");
+        if(buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported opening book version " + buffer.getInt(4));
+        size = buffer.getInt(8);
+        int slots = buffer.getInt(12);
+        entries = buffer.getInt(16);
+        if(size < 1 || slots < 1 || Integer.bitCount(slots) != 1 || entries > slots
+                || buffer.capacity() != HEADER_BYTES + (long) slots * ENTRY_BYTES)
+            throw new IOException("Corrupt opening book");
+        mask = slots - 1;
+    }
+
+    /**
+     * Maps the given book file into memory.
+     * @throws IOException if it cannot be read or is not a book of this version
+     */
+    public static OpeningBook open(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) throw new IOException("Opening book too large: " + file);
+            return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Returns the book of the given file, mapped once and shared by all users.
+     * @throws UncheckedIOException if it cannot be opened
+     */
+    public static OpeningBook forFile(Path file) {
+        return books.computeIfAbsent(file.toAbsolutePath().normalize(), f -> {
+            try {
+                return open(f);
+            } catch(IOException e) {
+                throw new UncheckedIOException("Cannot read opening book: " + f, e);
+            }
+        });
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getEntryCount() {
+        return entries;
+    }
+
+    /**
+     * Sets the number of games a move must have been played in to be chosen.
+     */
+    public void setMinGames(int minGames) {
+        this.minGames = minGames;
+    }
+
+    /**
+     * Returns the book move for the given state, which is not changed, or null if the book has
+     * no move for it (or is for another board size).
+     */
+    public Position lookup(GameState s) {
+        if(s.getSize() != size) return null;
+        GameState state = new GameState(s);
+        int[] legal = new int[size*size];
+        int count = state.legalMoves(legal);
+
+        int best = -1, bestGames = 0;
+        long bestScore = 0;
+        for(int i = 0; i < count; i++) {
+            int undo = state.makeMove(legal[i]);
+            int slot = find(canonicalHash(state));
+            state.undoMove(undo);
+            if(slot < 0) continue;
+            int games = games(slot);
+            long score = score(slot);
+            // compare the averages score/games without dividing
+            if(games >= minGames && (best < 0 || score * bestGames > bestScore * games
+                    || score * bestGames == bestScore * games && games > bestGames)) {
+                best = legal[i];
+                bestGames = games;
+                bestScore = score;
+            }
+        }
+        return best < 0 ? null : s.position(best);
+    }
+
+    /**
+     * Returns the number of book games that reached the position of the given state, 0 if none.
+     */
+    public int getGames(GameState s) {
+        if(s.getSize() != size) return 0;
+        int slot = find(canonicalHash(s));
+        return slot < 0 ? 0 : games(slot);
+    }
+
+    /**
+     * Returns the slot of the given key, or -1 if it is not in the book.
+     */
+    private int find(long key) {
+        for(int i = (int) key & mask; ; i = (i + 1) & mask) {
+            long k = buffer.getLong(offset(i));
+            if(k == key) return i;
+            if(k == 0) return -1;
+        }
+    }
+
+    private static int offset(int slot) {
+        return HEADER_BYTES + slot * ENTRY_BYTES;
+    }
+
+    private int games(int slot) {
+        return buffer.getInt(offset(slot) + 8);
+    }
+
+    private int score(int slot) {
+        return buffer.getInt(offset(slot) + 12);
+    }
+
+    /**
+     * Calls the action with the key, games and sum of results of every entry, e.g. to merge the
+     * book into a new one.
+     */
+    void forEach(EntryAction action) {
+        for(int i = 0; i <= mask; i++) {
+            long k = buffer.getLong(offset(i));
+            if(k != 0) action.accept(k, games(i), score(i));
+        }
+    }
+
+    interface EntryAction {
+        void accept(long key, int games, int score);
+    }
+
+    /**
+     * Writes a book for the given board size with the given entries (key to {games, sum of results}).
+     */
+    static void write(Path file, int size, Map<Long, int[]> entries) throws IOException {
+        int slots = Integer.highestOneBit(Math.max(1, entries.size() * 2 - 1)) * 2;
+        int mask = slots - 1;
+        if((long) slots * ENTRY_BYTES > Integer.MAX_VALUE - HEADER_BYTES) throw new IOException("Opening book too large");
+        ByteBuffer b = ByteBuffer.allocate(HEADER_BYTES + slots * ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, size).putInt(12, slots).putInt(16, entries.size());
+        for(Map.Entry<Long, int[]> e : entries.entrySet()) {
+            long key = e.getKey();
+            int i = (int) key & mask;
+            while(b.getLong(offset(i)) != 0) i = (i + 1) & mask;
+            b.putLong(offset(i), key).putInt(offset(i) + 8, e.getValue()[0]).putInt(offset(i) + 12, e.getValue()[1]);
+        }
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(b.hasRemaining()) channel.write(b);
+        }
+    }
+
+    /**
+     * Returns the canonical hash of the state: the smallest Zobrist hash of its 8 symmetric
+     * boards, with the same player in turn. Never 0, which marks an empty slot.
+     */
+    public static long canonicalHash(GameState s) {
+        int size = s.getSize();
+        int[][] perm = symmetries.computeIfAbsent(size, OpeningBook::symmetries);
+        Zobrist zobrist = Zobrist.forSize(size);
+        BitBoard board = s.getBitBoard();
+        long side = s.getPlayerInTurn() == 2 ? zobrist.side() : 0;
+        long[] h = new long[8];
+        for(int sq = 0; sq < size*size; sq++) {
+            int token = board.get(sq);
+            if(token == 0) continue;
+            for(int t = 0; t < 8; t++) h[t] ^= zobrist.token(perm[t][sq], token);
+        }
+        long min = Long.MAX_VALUE;
+        for(int t = 0; t < 8; t++) min = Math.min(min, h[t] ^ side);
+        return min == 0 ? 1 : min;
+    }
+
+    /**
+     * Returns the square each square is mapped to by each of the 8 symmetries of the board.
+     */
+    private static int[][] symmetries(int size) {
+        int n = size - 1;
+        int[][] perm = new int[8][size*size];
+        for(int col = 0; col < size; col++) {
+            for(int row = 0; row < size; row++) {
+                int[][] images = {{col, row}, {n - row, col}, {n - col, n - row}, {row, n - col},
+                                  {n - col, row}, {col, n - row}, {row, col}, {n - row, n - col}};
+                for(int t = 0; t < 8; t++) perm[t][col*size + row] = images[t][0]*size + images[t][1];
+            }
+        }
+        return perm;
+    }
+}
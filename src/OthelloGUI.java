@@ -4,12 +4,19 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * GUI to show the Othello game and to listen for input for the user/human player. When it is the user's turn, 
  * (s)he clicks on the place where (s)he wants to place a token, and when it is the computer's turn, the 
  * player needs to click anywhere in the frame to make the computer take it's turn. The user is made aware
  * of any illegal moves, or when (s)he - or the computer - have to pass because no legal moves are possible.  
+ * The AIs decide on another thread (see IAsyncOthelloAI), so the window stays responsive; pressing
+ * Escape stops the deciding AI, which then plays the best move it found so far, and with the system
+ * property othello.timeout it is stopped after that many seconds.
  * @author Mai Ajspur
  * @version 9.2.2018
  */
@@ -22,6 +29,9 @@ public class OthelloGUI extends JComponent implements MouseListener {
     private boolean humanPlayer;	// Whether a human player is playing or not
     private IOthelloAI ai1;			// The AI for player 1 if there are no human player
     private IOthelloAI ai2;			// The AI for player 2 
+    private CancellationToken decision;	// Stops the AI that is deciding, null if none is
+    private Duration moveTimeout;	// The time after which a decision is stopped, null for none
+    private CompletableFuture<Void> pondering = CompletableFuture.completedFuture(null);	// Done when the latest pondering has started
 
     // Images for drawing the game board
     private Image 		part, blackPion, whitePion, background;
@@ -60,7 +70,17 @@ public class OthelloGUI extends JComponent implements MouseListener {
     	if(!humanPlayer)
     		this.ai1 = ai1;
     	this.ai2=ai2;
+    	this.moveTimeout = AsyncAI.moveTimeout();
     	this.addMouseListener(this);
+
+    	getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "stopAI");
+    	getActionMap().put("stopAI", new AbstractAction() {
+    		static final long serialVersionUID = 1;
+    		public void actionPerformed(ActionEvent e) {
+    			if(decision != null)
+    				decision.cancel();
+    		}
+    	});
     }
 
     /**
@@ -120,10 +140,39 @@ public class OthelloGUI extends JComponent implements MouseListener {
     }
 
     public void mouseClicked(MouseEvent e) {
+    	if(state.isFinished() || decision != null) // Nothing to do, or an AI is still deciding
+    		return;
+    	if(humanPlayer && state.getPlayerInTurn() == 1) {
+    		playMove(humanSelectedPlace(e));
+    		return;
+    	}
+
+    	// The AI decides on another thread, and its move is played on the event dispatch thread
+    	IOthelloAI ai = state.getPlayerInTurn() == 1 ? ai1 : ai2;
+    	CancellationToken token = new CancellationToken();
+    	if(moveTimeout != null)
+    		token.cancelAfter(moveTimeout);
+    	decision = token;
+    	GameState s = new GameState(state);
+    	// The decision waits until the pondering has started, so that it stops it and not the other way round
+    	pondering.thenCompose(started -> AsyncAI.of(ai).decideMoveAsync(s, token)).whenComplete((place, error) ->
+    		SwingUtilities.invokeLater(() -> {
+    			decision = null;
+    			if(error == null)
+    				playMove(place);
+    			else
+    				decisionFailed(error);
+    		}));
+    }
+
+    /**
+     * Plays the given move for the player in turn, if it is legal, and handles a following pass
+     */
+    private void playMove(Position place) {
     	int currentPlayer = state.getPlayerInTurn();
     	if(!state.isFinished()) {
-    		Position place = getPlaceForNextToken(e);
-    		if(state.insertToken(place)) { // Chosen move is legal
+    		if(place != null && state.insertToken(place)) { // Chosen move is legal
+				startPondering(currentPlayer);
 				boolean nextPlayerCannotMove = state.legalMoves().isEmpty();
    				if(nextPlayerCannotMove) { // The next player cannot move
 					repaint();
@@ -143,18 +192,39 @@ public class OthelloGUI extends JComponent implements MouseListener {
     }
     
     /**
-     * Get a position to place the next token (i.e. read mouse click if human
-     * player is in turn, otherwise ask corresponding AI)
+     * Display message for when the AI in turn did not decide a move, because it was stopped before
+     * it found one or it failed. Another click lets it try again.
      */
-    private Position getPlaceForNextToken(MouseEvent e) {
-    	if(state.getPlayerInTurn() == 2)
-			return ai2.decideMove(state);
-		else {
-			if(humanPlayer)
-				return humanSelectedPlace(e);
-			else
-				return ai1.decideMove(state);
-		}
+    private void decisionFailed(Throwable error) {
+    	if(error instanceof CompletionException && error.getCause() != null)
+    		error = error.getCause();
+    	int currentPlayer = state.getPlayerInTurn();
+    	String player = "The AI for player " + currentPlayer + (currentPlayer == 1 ? " (black)" : " (white)");
+    	if(error instanceof CancellationException)
+    		JOptionPane.showMessageDialog(this, player + " was stopped before it found a move. Click to let it try again.");
+    	else {
+    		error.printStackTrace();
+    		JOptionPane.showMessageDialog(this, player + " failed: " + error + ". Please debug!",
+    			"AI Error", JOptionPane.ERROR_MESSAGE);
+    	}
+    }
+
+    /**
+     * Lets the AI of the given player think on the opponent's time, if it can (see IPonderingAI).
+     * Its next decideMove stops the pondering; when the game is finished, it does not start.
+     * The pondering is started off the event dispatch thread, since starting it can wait for the AI
+     * (e.g. to stop its earlier pondering or to open its table file).
+     */
+    private void startPondering(int player) {
+    	IOthelloAI ai = player == 1 ? ai1 : ai2;
+    	if(ai instanceof IPonderingAI) {
+    		GameState s = new GameState(state);
+    		pondering = pondering.thenRunAsync(() -> ((IPonderingAI) ai).startPondering(s))
+    			.exceptionally(error -> {
+    				error.printStackTrace();
+    				return null;
+    			});
+    	}
     }
 
     /**
@@ -0,0 +1,362 @@
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Principal Variation Search (NegaScout) in negamax form: every value is from the point of view
+ * of the player in turn, so one method replaces maxValue and minValue.
+ * The first child of a node is searched with the full window; the others only with a null window
+ * to prove that they are not better, and are searched again with the full window when one is.
+ * With good move ordering (see MoveOrdering) the first child is usually the best, so most nodes
+ * are only searched with the cheaper null window.
+ * Searches deepen iteratively, and can start each iteration with an aspiration window around
+ * the value of the previous one (see setAspirationWindow).
+ * The metrics of every decision are reported to the listeners (see SearchStats).
+ */
+public class PVS implements SearchEngine {
+    public static final int DEFAULT_DEPTH = HMINIMAX.DEFAULT_DEPTH;
+    public static final long DEFAULT_TABLE_BYTES = HMINIMAX.DEFAULT_TABLE_BYTES;
+    public static final int DEFAULT_ENDGAME_EMPTIES = HMINIMAX.DEFAULT_ENDGAME_EMPTIES;
+    // the clock is only read every DEADLINE_CHECK_NODES nodes, which must be a power of two
+    private static final int DEADLINE_CHECK_NODES = 1024;
+    // above any value, and safe to negate
+    private static final int INFINITY = Integer.MAX_VALUE - 1;
+
+    // the depth of searches without a time budget
+    private int cutoffDepth = DEFAULT_DEPTH;
+    // the time budget of decision(GameState), null to search to cutoffDepth instead
+    private Duration timeBudget;
+    // the half width of the aspiration windows, 0 to search every iteration with the full window
+    private int aspirationWindow;
+    private Evaluator evaluator = new PatternEvaluator();
+    private TranspositionTable table;
+    private long nodes;
+    // beta cutoffs, and those of them on the first move searched
+    private long cutoffs, firstMoveCutoffs;
+    // states with at most this many empty squares are solved exactly by the endgame solver
+    private int endgameEmpties = DEFAULT_ENDGAME_EMPTIES;
+    private final EndgameSolver endgame = new EndgameSolver(EndgameSolver.DISC_DIFFERENCE);
+    private final List<SearchListener> listeners = new CopyOnWriteArrayList<>();
+    // the metrics of the latest decision
+    private SearchStats stats;
+
+    // the state of the running search; an instance searches one state at a time
+    private GameState s;
+    private int[][] moves;
+    private MoveOrdering ordering;
+    private long deadline;
+    // set by stop until the next decision starts; volatile, but only read every DEADLINE_CHECK_NODES nodes
+    private volatile boolean stopped;
+    private boolean aborted;
+    private int rootMove;
+
+    public PVS() {
+        table = new TranspositionTable(DEFAULT_TABLE_BYTES);
+    }
+
+    /**
+     * Sets the depth of searches without a time budget.
+     */
+    public void setDepth(int depth) {
+        this.cutoffDepth = depth;
+    }
+
+    /**
+     * Sets the time budget of decision(GameState). With null (the default) it searches to a
+     * fixed depth instead, see setDepth.
+     */
+    public void setTimeBudget(Duration timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Sets the half width of the aspiration windows: each iteration after the first is searched
+     * with the window value-w..value+w around the value of the previous iteration, and again with
+     * the full window if its value falls outside. 0 (the default) turns aspiration windows off.
+     */
+    public void setAspirationWindow(int w) {
+        this.aspirationWindow = w;
+    }
+
+    public void setEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Replaces the transposition table by an empty one using at most the given number of bytes.
+     */
+    public void setTableSize(long bytes) {
+        table = new TranspositionTable(bytes);
+    }
+
+    /**
+     * Replaces the transposition table by the given one, e.g. to share it with other engines.
+     */
+    public void setTable(TranspositionTable table) {
+        this.table = table;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    public void newGame() {
+        table.clear();
+        endgame.clearTable();
+    }
+
+    /**
+     * Returns the name of the engine and of the evaluation for the size, e.g. "PVS/Pattern-1f03a2c4".
+     */
+    public String getTableOwner(int size) {
+        return getClass().getSimpleName() + "/" + evaluator.getName(size);
+    }
+
+    /**
+     * Sets the number of empty squares at which the endgame solver takes over from the search,
+     * 0 to always search.
+     */
+    public void setEndgameEmpties(int empties) {
+        this.endgameEmpties = empties;
+    }
+
+    /**
+     * Sets whether the endgame solver only finds a winning (or drawing) move, which is faster,
+     * or the move with the best final disc difference (the default).
+     * @param mode EndgameSolver.WIN_LOSS_DRAW or EndgameSolver.DISC_DIFFERENCE
+     */
+    public void setEndgameMode(int mode) {
+        endgame.setMode(mode);
+    }
+
+    /**
+     * Returns the number of nodes visited by the latest decision, in all iterations.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    public void addListener(SearchListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SearchListener listener) {
+        listeners.remove(listener);
+    }
+
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Aborts the running iteration as if its deadline was reached. The stop holds for the rest of
+     * the decision, also if it comes between the endgame solver and the search.
+     */
+    public void stop() {
+        stopped = true;
+        endgame.stop();
+    }
+
+    public boolean canStop() {
+        return true;
+    }
+
+    /**
+     * Searches within the time budget if one is set, and otherwise deepens to the fixed depth.
+     */
+    public Position decision(GameState s) {
+        if(timeBudget != null) return decision(s, timeBudget);
+        stopped = false;
+        endgame.reset();
+        stats = new SearchStats(getClass().getSimpleName(), s, table, listeners);
+        if(s.getEmptyCount() <= endgameEmpties && solveEndgame(s, Long.MAX_VALUE)) return stats.finish(endgame.getMove());
+        return stats.finish(search(s, cutoffDepth, Long.MAX_VALUE, 0));
+    }
+
+    /**
+     * Iterative deepening within a time budget, returning the best move of the deepest iteration
+     * that was completed. No new iteration is started once half of the budget is used.
+     * In the endgame (see setEndgameEmpties) the endgame solver gets the first half of the budget.
+     */
+    public Position decision(GameState s, Duration budget) {
+        long start = System.nanoTime();
+        stopped = false;
+        endgame.reset();
+        stats = new SearchStats(getClass().getSimpleName(), s, table, listeners);
+        if(s.getEmptyCount() <= endgameEmpties && solveEndgame(s, start + budget.toNanos() / 2))
+            return stats.finish(endgame.getMove());
+        return stats.finish(search(s, s.getEmptyCount(), start + budget.toNanos(), start + budget.toNanos() / 2));
+    }
+
+    private boolean solveEndgame(GameState s, long deadline) {
+        if(stopped) return false;
+        boolean solved = endgame.solve(s, deadline);
+        stats.endgame(endgame, solved);
+        return solved;
+    }
+
+    /**
+     * Deepens iteratively up to maxDepth.
+     * @param deadline the time (System.nanoTime) at which the running iteration is aborted
+     * @param lastStart no iteration is started after this time, 0 for no limit
+     */
+    private Position search(GameState state, int maxDepth, long deadline, long lastStart) {
+        int size = state.getSize();
+        this.s = new GameState(state);
+        this.moves = new int[maxDepth + 2][size*size];
+        this.ordering = new MoveOrdering(size, maxDepth + 1);
+        this.deadline = deadline;
+        this.aborted = false;
+        this.nodes = 0;
+        this.cutoffs = 0;
+        this.firstMoveCutoffs = 0;
+
+        int count = s.legalMoves(moves[0]);
+        if(count <= 1) return count == 0 ? null : state.position(moves[0][0]);
+
+        int best = moves[0][0]; // in case not even depth 1 finishes
+        int value = 0;
+        for(int depth = 1; depth <= maxDepth; depth++) {
+            table.newSearch();
+            int v;
+            if(aspirationWindow > 0 && depth > 1) {
+                int alpha = value - aspirationWindow, beta = value + aspirationWindow;
+                v = rootSearch(depth, alpha, beta, best);
+                if(!aborted && (v <= alpha || v >= beta)) // the value is outside, the move not reliable
+                    v = rootSearch(depth, -INFINITY, INFINITY, best);
+            } else {
+                v = rootSearch(depth, -INFINITY, INFINITY, best);
+            }
+            stats.iteration(depth, !aborted, v, rootMove, nodes, cutoffs, firstMoveCutoffs);
+            if(aborted) break;
+            best = rootMove;
+            value = v;
+            if(lastStart != 0 && System.nanoTime() > lastStart) break;
+        }
+
+        return state.position(best);
+    }
+
+    /**
+     * Searches the moves of the root to the given depth with the window alpha..beta, starting with
+     * firstMove, and sets rootMove to the best of them.
+     * @return the value of the root, fail-soft
+     */
+    private int rootSearch(int depth, int alpha, int beta, int firstMove) {
+        int[] legal = moves[0];
+        int count = s.legalMoves(legal);
+        ordering.order(legal, count, firstMove, 0, s.getPlayerInTurn());
+
+        int best = -INFINITY;
+        rootMove = legal[0];
+        for(int i = 0; i < count; i++) {
+            int undo = s.makeMove(legal[i]);
+            int v;
+            if(i == 0) {
+                v = -negamax(-beta, -alpha, 1, depth);
+            } else {
+                v = -negamax(-alpha - 1, -alpha, 1, depth);
+                if(v > alpha && v < beta) v = -negamax(-beta, -alpha, 1, depth);
+            }
+            s.undoMove(undo);
+            if(aborted) return 0;
+
+            if(v > best) {
+                best = v;
+                rootMove = legal[i];
+            }
+            if(v > alpha) alpha = v;
+            if(alpha >= beta) break;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the value of the state for the player in turn, searched with the window alpha..beta
+     * to the given depth. Fail-soft: a value outside the window is a bound on the real value.
+     */
+    private int negamax(int alpha, int beta, int d, int depth) {
+        if((++nodes & (DEADLINE_CHECK_NODES - 1)) == 0 && (stopped || System.nanoTime() >= deadline)) aborted = true;
+        if(aborted) return 0;
+
+        int[] legal = moves[d];
+        int count = s.legalMoves(legal);
+        if(s.isTerminal(count)) return utility();
+        if(d >= depth) return evaluator.evaluate(s, s.getPlayerInTurn());
+
+        int depthLeft = depth - d;
+        long entry = table.probe(s.getHash());
+        int tableMove = -1;
+        if(entry != 0) {
+            if(TranspositionTable.depth(entry) >= depthLeft) {
+                int score = TranspositionTable.score(entry);
+                int bound = TranspositionTable.bound(entry);
+                if(bound == TranspositionTable.EXACT
+                        || bound == TranspositionTable.LOWER && score >= beta
+                        || bound == TranspositionTable.UPPER && score <= alpha)
+                    return score;
+            }
+            tableMove = TranspositionTable.move(entry);
+        }
+
+        if(count == 0) { // the player in turn has to pass
+            s.changePlayer();
+            int v = -negamax(-beta, -alpha, d + 1, depth);
+            s.changePlayer();
+            return v;
+        }
+
+        ordering.order(legal, count, tableMove, d, s.getPlayerInTurn());
+        int alphaOrig = alpha;
+        int v = -INFINITY;
+        int best = -1;
+        for(int i = 0; i < count; i++) {
+            int undo = s.makeMove(legal[i]);
+            int val;
+            if(i == 0) {
+                val = -negamax(-beta, -alpha, d + 1, depth);
+            } else {
+                val = -negamax(-alpha - 1, -alpha, d + 1, depth);
+                if(val > alpha && val < beta) // failed high: it may be better than the first, search it properly
+                    val = -negamax(-beta, -alpha, d + 1, depth);
+            }
+            s.undoMove(undo);
+            if(aborted) return 0; // the result is not used, and must not be stored
+
+            if(val > v) {
+                v = val;
+                best = legal[i];
+            }
+            if(v > alpha) alpha = v;
+            if(alpha >= beta) {
+                cutoffs++;
+                if(i == 0) firstMoveCutoffs++;
+                ordering.cutoff(best, d, s.getPlayerInTurn(), depthLeft);
+                break;
+            }
+        }
+
+        int bound = TranspositionTable.EXACT;
+        if(v <= alphaOrig) bound = TranspositionTable.UPPER;
+        else if(v >= beta) bound = TranspositionTable.LOWER;
+        table.store(s.getHash(), depthLeft, bound, v, best);
+        return v;
+    }
+
+    /**
+     * Returns a utility value based on the winner at this game state, beyond the range of the
+     * evaluation so that a won game is always preferred
+     * @return Evaluator.WIN plus the disc difference if the player in turn is the winner, the
+     * negated value if the other player wins and 0 if it's a tie
+     */
+    private int utility() {
+        int player = s.getPlayerInTurn();
+        int[] tokens = s.countTokens();
+        int diff = tokens[player-1] - tokens[2-player];
+
+        if(diff == 0) return 0;
+        else return diff > 0 ? Evaluator.WIN + diff : -Evaluator.WIN + diff;
+    }
+}
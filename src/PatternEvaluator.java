@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Table-driven evaluation: the sum of the table values of all patterns (see Patterns), whose
+ * indices GameState keeps up to date on every move, plus weighted terms for stable edge tokens,
+ * mobility (the number of legal moves) and frontier tokens (tokens next to an empty square).
+ * The weights are per board size (see PatternWeights). At construction they are loaded from the
+ * weight files named by the system property othello.weights (comma-separated, e.g.
+ * -Dothello.weights=weights8.bin, see WeightTuner); sizes without weights use the defaults.
+ * One evaluator can be used by several searching threads at the same time.
+ */
+public class PatternEvaluator implements Evaluator {
+    public static final String WEIGHTS_PROPERTY = "othello.weights";
+
+    private final ConcurrentHashMap<Integer, PatternWeights> weights = new ConcurrentHashMap<>();
+
+    /**
+     * @throws IllegalArgumentException if a weight file named by othello.weights cannot be read
+     */
+    public PatternEvaluator() {
+        String files = System.getProperty(WEIGHTS_PROPERTY, "");
+        for(String file : files.split(",")) {
+            if(file.trim().isEmpty()) continue;
+            try {
+                setWeights(PatternWeights.load(Paths.get(file.trim())));
+            } catch(IOException e) {
+                throw new IllegalArgumentException("Cannot read weight file: " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Uses the given weights for boards of their size.
+     */
+    public void setWeights(PatternWeights w) {
+        weights.put(w.getSize(), w);
+    }
+
+    public PatternWeights getWeights(int size) {
+        return weights.computeIfAbsent(size, PatternWeights::defaults);
+    }
+
+    /**
+     * Returns "Pattern-" and the fingerprint of the weights for the size, in hex.
+     */
+    public String getName(int size) {
+        return String.format("Pattern-%08x", getWeights(size).fingerprint());
+    }
+
+    /**
+     * @param s the game state to evaluate
+     * @return positive if the state is good for player, negative if it is good for the other player
+     */
+    public int evaluate(GameState s, int player) {
+        int size = s.getSize();
+        PatternWeights w = getWeights(size);
+        Patterns patterns = Patterns.forSize(size);
+        int[] indices = s.getPatternIndices();
+
+        int eval = 0;
+        int stable = 0;
+        for(int p = 0; p < indices.length; p++) {
+            int type = patterns.getType(p);
+            eval += w.tables[type][indices[p]];
+            if(type == Patterns.EDGE) stable += w.stable[indices[p]];
+        }
+
+        BitBoard board = s.getBitBoard();
+        eval += w.stability * stable;
+        eval += w.mobility * (board.mobility(1) - board.mobility(2));
+        eval += w.frontier * (board.frontier(1) - board.frontier(2));
+
+        return player == 1 ? eval : -eval;
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * The weights PatternEvaluator uses for one board size: a table per pattern type (see Patterns)
+ * with a value for every pattern index, the number of stable tokens for every edge index, and
+ * the weights of the stability, mobility and frontier terms. All values are from black's point
+ * of view.
+ * The default weights are hand-made: corners are good, the squares next to an empty corner bad,
+ * other edge squares a little good, and tokens in an unbroken line from an own corner along an
+ * edge are stable, since they can never be turned.
+ * Tuned weights (see WeightTuner) are stored in a binary weight file with save and read with load.
+ */
+public class PatternWeights {
+    private static final int MAGIC = 0x4F545057; // "OTPW"
+    private static final int VERSION = 1;
+
+    public static final int DEFAULT_CORNER = 40;
+    public static final int DEFAULT_X_SQUARE = -20;
+    public static final int DEFAULT_C_SQUARE = -10;
+    public static final int DEFAULT_EDGE = 3;
+    public static final int DEFAULT_STABILITY = 8;
+    public static final int DEFAULT_MOBILITY = 6;
+    public static final int DEFAULT_FRONTIER = -3;
+
+    final int size;
+    final int[][] tables;   // per pattern type and index
+    final int[] stable;     // per edge index: stable black tokens minus stable white tokens
+    int stability;
+    int mobility;
+    int frontier;
+
+    /**
+     * Creates weights for the given board size with all tables and weights 0.
+     */
+    public PatternWeights(int size) {
+        this.size = size;
+        Patterns patterns = Patterns.forSize(size);
+        tables = new int[Patterns.TYPES][];
+        for(int t = 0; t < Patterns.TYPES; t++) tables[t] = new int[patterns.getTableSize(t)];
+        stable = stableTokens(size, patterns.getTableSize(Patterns.EDGE));
+    }
+
+    /**
+     * Returns the hand-made default weights for the given board size.
+     */
+    public static PatternWeights defaults(int size) {
+        PatternWeights w = new PatternWeights(size);
+        int line = Math.min(size, Patterns.MAX_LENGTH);
+        int block = Math.min(size, 3);
+
+        int[] d = new int[line];
+        for(int index = 0; index < w.tables[Patterns.EDGE].length; index++) {
+            digits(index, d);
+            int v = 0;
+            for(int k = 2; k < line; k++) v += DEFAULT_EDGE * sign(d[k]);
+            if(d[0] == 0 && line > 1) v += DEFAULT_C_SQUARE * sign(d[1]);
+            w.tables[Patterns.EDGE][index] = v;
+        }
+
+        d = new int[block * block];
+        int x = block > 1 ? block + 1 : 0;  // the square diagonal to the corner
+        for(int index = 0; index < w.tables[Patterns.CORNER].length; index++) {
+            digits(index, d);
+            int v = DEFAULT_CORNER * sign(d[0]);
+            if(d[0] == 0 && x != 0) v += DEFAULT_X_SQUARE * sign(d[x]);
+            w.tables[Patterns.CORNER][index] = v;
+        }
+
+        w.stability = DEFAULT_STABILITY;
+        w.mobility = DEFAULT_MOBILITY;
+        w.frontier = DEFAULT_FRONTIER;
+        return w;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the table of the given pattern type. It is the weights' own array, so changing it
+     * changes the weights.
+     */
+    public int[] getTable(int type) {
+        return tables[type];
+    }
+
+    public int getStability() {
+        return stability;
+    }
+
+    public void setStability(int stability) {
+        this.stability = stability;
+    }
+
+    public int getMobility() {
+        return mobility;
+    }
+
+    public void setMobility(int mobility) {
+        this.mobility = mobility;
+    }
+
+    public int getFrontier() {
+        return frontier;
+    }
+
+    public void setFrontier(int frontier) {
+        this.frontier = frontier;
+    }
+
+    /**
+     * Returns a hash of all weights, which tells different weights apart (almost always). It is
+     * computed on every call, since the tables can be changed through getTable.
+     */
+    public int fingerprint() {
+        int h = Arrays.deepHashCode(tables);
+        h = 31 * h + stability;
+        h = 31 * h + mobility;
+        return 31 * h + frontier;
+    }
+
+    /**
+     * Writes the weights to a weight file: a header (magic number, version, board size), the
+     * stability, mobility and frontier weights, and the tables, each as its length and values.
+     */
+    public void save(Path file) throws IOException {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeInt(stability);
+            out.writeInt(mobility);
+            out.writeInt(frontier);
+            for(int[] table : tables) {
+                out.writeInt(table.length);
+                for(int v : table) out.writeInt(v);
+            }
+        }
+    }
+
+    /**
+     * Reads weights written by save.
+     * @throws IOException if the file cannot be read or is not a weight file of this version
+     */
+    public static PatternWeights load(Path file) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if(in.readInt() != MAGIC) throw new IOException("Not a weight file: " + file);
+            int version = in.readInt();
+            if(version != VERSION) throw new IOException("Unsupported weight file version " + version + ": " + file);
+
+            int size = in.readInt();
+            if(size < 1 || size > 64) throw new IOException("Invalid board size " + size + ": " + file);
+            PatternWeights w = new PatternWeights(size);
+            w.stability = in.readInt();
+            w.mobility = in.readInt();
+            w.frontier = in.readInt();
+            for(int[] table : w.tables) {
+                if(in.readInt() != table.length) throw new IOException("Table size does not match the board size: " + file);
+                for(int i = 0; i < table.length; i++) table[i] = in.readInt();
+            }
+            return w;
+        }
+    }
+
+    /**
+     * Counts the stable tokens of every edge index: the tokens in an unbroken line of one color
+     * from an occupied corner, or all tokens if the edge is completely filled (only when the
+     * pattern covers the whole edge).
+     */
+    private static int[] stableTokens(int size, int tableSize) {
+        int line = Math.min(size, Patterns.MAX_LENGTH);
+        int[] stable = new int[tableSize];
+        int[] d = new int[line];
+        for(int index = 0; index < tableSize; index++) {
+            digits(index, d);
+            boolean full = line == size;
+            for(int k = 0; k < line; k++) if(d[k] == 0) full = false;
+
+            int v = 0;
+            if(full) {
+                for(int k = 0; k < line; k++) v += sign(d[k]);
+            } else if(d[0] != 0) {
+                for(int k = 0; k < line && d[k] == d[0]; k++) v += sign(d[0]);
+            }
+            stable[index] = v;
+        }
+        return stable;
+    }
+
+    /**
+     * Writes the base-3 digits of the index to d, lowest first.
+     */
+    static void digits(int index, int[] d) {
+        for(int k = 0; k < d.length; k++) {
+            d[k] = index % 3;
+            index /= 3;
+        }
+    }
+
+    /**
+     * Returns 1 for a black token, -1 for a white one and 0 for an empty square.
+     */
+    private static int sign(int digit) {
+        return digit == 1 ? 1 : digit == 2 ? -1 : 0;
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * The patterns scored by PatternEvaluator: lines of squares going out from each corner along
+ * both edges (EDGE) and the diagonal (DIAGONAL), and the 3x3 block at each corner (CORNER).
+ * Lines are at most MAX_LENGTH squares long, so the tables stay small on large boards.
+ * A pattern's index encodes its squares in base 3 (digit 0 empty, 1 black, 2 white), with the
+ * square nearest to the corner as the lowest digit, so all instances of a pattern type share
+ * one table. GameState keeps the indices up to date on every move, like the Zobrist hash: a
+ * token changing at a square changes each index it is part of by digit * 3^position.
+ */
+public final class Patterns {
+    public static final int EDGE = 0;
+    public static final int CORNER = 1;
+    public static final int DIAGONAL = 2;
+    public static final int TYPES = 3;
+    public static final int MAX_LENGTH = 8;
+    private static final ConcurrentHashMap<Integer, Patterns> PATTERNS = new ConcurrentHashMap<>();
+
+    private final int size;
+    private final int[] type;         // per pattern
+    private final int[][] squares;    // per pattern, nearest to the corner first
+    private final int[] tableSize;    // per type, 3^length
+    // for each square, the patterns it is part of and its weight 3^position in them
+    private final int[] first;        // index into pattern and weight, per square (size*size+1)
+    private final int[] pattern;
+    private final int[] weight;
+
+    private Patterns(int size) {
+        this.size = size;
+        int line = Math.min(size, MAX_LENGTH);
+        int block = Math.min(size, 3);
+        int last = size - 1;
+        int[][] corners = {{0, 0, 1, 1}, {0, last, 1, -1}, {last, 0, -1, 1}, {last, last, -1, -1}};
+
+        int count = 16;
+        type = new int[count];
+        squares = new int[count][];
+        int p = 0;
+        for(int[] c : corners) {
+            int col = c[0], row = c[1], dc = c[2], dr = c[3];
+            type[p] = EDGE;
+            squares[p++] = line(col, row, dc, 0, line);
+            type[p] = EDGE;
+            squares[p++] = line(col, row, 0, dr, line);
+            type[p] = DIAGONAL;
+            squares[p++] = line(col, row, dc, dr, line);
+            type[p] = CORNER;
+            int[] b = new int[block * block];
+            for(int i = 0; i < block; i++)
+                for(int j = 0; j < block; j++)
+                    b[i*block + j] = (col + i*dc)*size + row + j*dr;
+            squares[p++] = b;
+        }
+        tableSize = new int[]{pow3(line), pow3(block * block), pow3(line)};
+
+        first = new int[size*size + 1];
+        for(int[] sq : squares)
+            for(int s : sq) first[s + 1]++;
+        for(int s = 0; s < size*size; s++) first[s + 1] += first[s];
+        pattern = new int[first[size*size]];
+        weight = new int[first[size*size]];
+        int[] next = first.clone();
+        for(int i = 0; i < count; i++) {
+            for(int k = 0; k < squares[i].length; k++) {
+                int s = squares[i][k];
+                pattern[next[s]] = i;
+                weight[next[s]++] = pow3(k);
+            }
+        }
+    }
+
+    private int[] line(int col, int row, int dc, int dr, int length) {
+        int[] line = new int[length];
+        for(int k = 0; k < length; k++) line[k] = (col + k*dc)*size + row + k*dr;
+        return line;
+    }
+
+    private static int pow3(int n) {
+        int p = 1;
+        for(int i = 0; i < n; i++) p *= 3;
+        return p;
+    }
+
+    /**
+     * Returns the patterns for boards with the given number of columns and rows. They are created
+     * once per size and shared by all states.
+     */
+    public static Patterns forSize(int size) {
+        return PATTERNS.computeIfAbsent(size, Patterns::new);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCount() {
+        return type.length;
+    }
+
+    /**
+     * Returns the type (EDGE, CORNER or DIAGONAL) of the given pattern.
+     */
+    public int getType(int pattern) {
+        return type[pattern];
+    }
+
+    /**
+     * Returns the squares of the given pattern, the one nearest to its corner first.
+     */
+    public int[] getSquares(int pattern) {
+        return squares[pattern].clone();
+    }
+
+    /**
+     * Returns the number of different indices of the patterns of the given type.
+     */
+    public int getTableSize(int type) {
+        return tableSize[type];
+    }
+
+    /**
+     * Computes the indices of all patterns of the given board from scratch.
+     */
+    public void indices(BitBoard board, int[] out) {
+        for(int p = 0; p < squares.length; p++) {
+            int index = 0;
+            for(int k = squares[p].length - 1; k >= 0; k--) index = 3*index + board.get(squares[p][k]);
+            out[p] = index;
+        }
+    }
+
+    /**
+     * Adds delta times the square's digit weight to the index of every pattern the square is
+     * part of, where delta is the change of the square's digit: the player for a token put on an
+     * empty square, 1 for a black token turned white and -1 for a white token turned black.
+     */
+    void update(int[] indices, int sq, int delta) {
+        for(int i = first[sq]; i < first[sq + 1]; i++) indices[pattern[i]] += delta * weight[i];
+    }
+}
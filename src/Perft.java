@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Perft: counts the leaf nodes of the game tree to a given depth, to check the move generation
+ * against known counts and to measure its speed.
+ *   java Perft [depth] [threads] [size] [--check] [--pass-ply]
+ * A pass is handled as in OthelloGUI.mouseClicked: it is not a ply of its own, the other player
+ * just moves again. A finished game before the depth counts as one leaf. With --pass-ply a pass
+ * is a ply of its own instead, as in the perft counts usually published for Othello.
+ * The start position is counted for every depth up to the given one, and on 8x8 compared with
+ * REFERENCE_8X8 (or REFERENCE_8X8_PASS_PLY). With --check, the counts of a simple array-based
+ * move generator (like the one GameState had before it used bitboards) are compared as well.
+ * With more than one thread the subtrees are counted in parallel on a ForkJoinPool.
+ */
+public class Perft {
+    // leaf counts of the 8x8 start position for depths 0, 1, 2, ..., with passes as in the GUI
+    // (up to depth 10 the same with the array-based generator)
+    public static final long[] REFERENCE_8X8 = {1L, 4L, 12L, 56L, 244L, 1396L, 8200L, 55092L,
+            390216L, 3005320L, 24571420L, 212260880L};
+    // the same with a pass as a ply of its own, the published counts
+    public static final long[] REFERENCE_8X8_PASS_PLY = {1L, 4L, 12L, 56L, 244L, 1396L, 8200L, 55092L,
+            390216L, 3005288L, 24571284L, 212258800L, 1939886636L};
+    // subtrees with at least this many plies are counted as tasks of their own
+    private static final int SPLIT_DEPTH = 6;
+
+    public static void main(String[] args) {
+        List<String> params = new ArrayList<>();
+        boolean check = false, passPly = false;
+        for(String a : args) {
+            if(a.equals("--check")) check = true;
+            else if(a.equals("--pass-ply")) passPly = true;
+            else params.add(a);
+        }
+        long[] references = passPly ? REFERENCE_8X8_PASS_PLY : REFERENCE_8X8;
+        int depth = params.size() > 0 ? Integer.parseInt(params.get(0)) : 9;
+        int threads = params.size() > 1 ? Integer.parseInt(params.get(1)) : Runtime.getRuntime().availableProcessors();
+        int size = params.size() > 2 ? Integer.parseInt(params.get(2)) : 8;
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+
+        boolean ok = true;
+        for(int d = 1; d <= depth; d++) {
+            long start = System.nanoTime();
+            long count = perft(new GameState(size, 1), d, passPly, pool);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            String result = "";
+            if(size == 8 && d < references.length) {
+                boolean match = count == references[d];
+                result = match ? "ok" : "MISMATCH, expected " + references[d];
+                ok &= match;
+            }
+            if(check) {
+                long reference = ArrayBoard.perft(new ArrayBoard(size), d, passPly);
+                result += (result.isEmpty() ? "" : ", ") + (reference == count ? "array generator ok" : "MISMATCH with array generator: " + reference);
+                ok &= reference == count;
+            }
+            System.out.printf("depth %2d: %,15d leaves  %8.3f s  %,14.0f leaves/s  %s%n", d, count, seconds, count / seconds, result);
+        }
+        if(pool != null) pool.shutdown();
+        if(!ok) System.exit(1);
+    }
+
+    /**
+     * Counts the leaves of the tree of the given state to the given depth, in parallel on the pool
+     * if it is not null. The state is not changed.
+     * @param passPly true if a pass is a ply of its own
+     */
+    public static long perft(GameState s, int depth, boolean passPly, ForkJoinPool pool) {
+        GameState copy = new GameState(s);
+        if(pool == null) return perft(copy, depth, passPly, new int[depth + 2][s.getSize()*s.getSize()]);
+        return pool.invoke(new Subtree(copy, depth, passPly));
+    }
+
+    private static long perft(GameState s, int depth, boolean passPly, int[][] moves) {
+        if(depth == 0) return 1;
+        int[] legal = moves[depth];
+        int count = s.legalMoves(legal);
+        if(count == 0) {
+            if(!s.opponentCanMove()) return 1; // the game is finished
+            s.changePlayer(); // a pass, then the other player moves
+            long n = perft(s, passPly ? depth - 1 : depth, passPly, moves);
+            s.changePlayer();
+            return n;
+        }
+        if(depth == 1) return count;
+
+        long n = 0;
+        for(int i = 0; i < count; i++) {
+            int undo = s.makeMove(legal[i]);
+            n += perft(s, depth - 1, passPly, moves);
+            s.undoMove(undo);
+        }
+        return n;
+    }
+
+    /**
+     * Counts a subtree, forking a task per child while the children are at least SPLIT_DEPTH deep.
+     */
+    private static final class Subtree extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final GameState s;
+        private final int depth;
+        private final boolean passPly;
+
+        Subtree(GameState s, int depth, boolean passPly) {
+            this.s = s;
+            this.depth = depth;
+            this.passPly = passPly;
+        }
+
+        protected Long compute() {
+            int size = s.getSize();
+            if(depth <= SPLIT_DEPTH) return perft(s, depth, passPly, new int[depth + 2][size*size]);
+
+            int[] legal = new int[size*size];
+            int count = s.legalMoves(legal);
+            if(count == 0) {
+                if(!s.opponentCanMove()) return 1L;
+                s.changePlayer();
+                return new Subtree(s, passPly ? depth - 1 : depth, passPly).compute();
+            }
+
+            List<Subtree> children = new ArrayList<>();
+            for(int i = 0; i < count; i++) {
+                GameState child = new GameState(s);
+                child.makeMove(legal[i]);
+                children.add(new Subtree(child, depth - 1, passPly));
+            }
+            long n = 0;
+            for(Subtree child : invokeAll(children)) n += child.join();
+            return n;
+        }
+    }
+
+    /**
+     * A plain move generator on an int[][] board, which checks every direction from every empty
+     * square, for comparing the counts of GameState's move generation with.
+     */
+    static final class ArrayBoard {
+        final int size;
+        final int[][] board;
+        int player = 1;
+
+        ArrayBoard(int size) {
+            this.size = size;
+            board = new int[size][size];
+            int half = size/2 - 1;
+            board[half][half] = board[half+1][half+1] = 1;
+            board[half][half+1] = board[half+1][half] = 2;
+        }
+
+        static long perft(ArrayBoard b, int depth, boolean passPly) {
+            if(depth == 0) return 1;
+            List<int[]> moves = b.legalMoves();
+            if(moves.isEmpty()) {
+                b.player = 3 - b.player;
+                boolean finished = b.legalMoves().isEmpty();
+                long n = finished ? 1 : perft(b, passPly ? depth - 1 : depth, passPly);
+                b.player = 3 - b.player;
+                return n;
+            }
+
+            long n = 0;
+            for(int[] m : moves) {
+                int[][] saved = new int[b.size][];
+                for(int c = 0; c < b.size; c++) saved[c] = b.board[c].clone();
+                b.play(m[0], m[1]);
+                n += perft(b, depth - 1, passPly);
+                for(int c = 0; c < b.size; c++) b.board[c] = saved[c];
+                b.player = 3 - b.player;
+            }
+            return n;
+        }
+
+        List<int[]> legalMoves() {
+            List<int[]> moves = new ArrayList<>();
+            for(int c = 0; c < size; c++) {
+                for(int r = 0; r < size; r++) {
+                    if(board[c][r] != 0) continue;
+                    boolean legal = false;
+                    for(int dc = -1; dc <= 1 && !legal; dc++)
+                        for(int dr = -1; dr <= 1 && !legal; dr++)
+                            if(captures(c, r, dc, dr) > 0) legal = true;
+                    if(legal) moves.add(new int[]{c, r});
+                }
+            }
+            return moves;
+        }
+
+        void play(int c, int r) {
+            for(int dc = -1; dc <= 1; dc++) {
+                for(int dr = -1; dr <= 1; dr++) {
+                    int n = captures(c, r, dc, dr);
+                    for(int i = 1; i <= n; i++) board[c + dc*i][r + dr*i] = player;
+                }
+            }
+            board[c][r] = player;
+            player = 3 - player;
+        }
+
+        int captures(int c, int r, int dc, int dr) {
+            if(dc == 0 && dr == 0) return 0;
+            int opponent = 3 - player;
+            int n = 0;
+            int cc = c + dc, rr = r + dr;
+            while(cc >= 0 && cc < size && rr >= 0 && rr < size && board[cc][rr] == opponent) {
+                cc += dc;
+                rr += dr;
+                n++;
+            }
+            if(n > 0 && cc >= 0 && cc < size && rr >= 0 && rr < size && board[cc][rr] == player) return n;
+            return 0;
+        }
+    }
+}
@@ -1,4 +1,3 @@
-import java.util.ArrayList;
 import java.util.Random;
 
 /**
@@ -13,12 +12,13 @@ public class RandomAI implements IOthelloAI {
      * @return a random legal move
      */
     public Position decideMove(GameState s) {
-        ArrayList<Position> moves = s.legalMoves();
+        int[] moves = new int[s.getSize()*s.getSize()];
+        int n = s.legalMoves(moves);
 
-        if(!moves.isEmpty()) {
+        if(n > 0) {
             // pick a random move
             Random r = new Random();
-            return moves.get(r.nextInt(moves.size()));
+            return s.position(moves[r.nextInt(n)]);
         } else
             return new Position(-1,-1);
     }
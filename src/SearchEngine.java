@@ -0,0 +1,83 @@
+import java.time.Duration;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Common interface of the search algorithms that SmarterAI can use to decide its moves.
+ * An engine keeps its own configuration and state, so different engines can search at the same
+ * time on different threads; one engine searches one position at a time.
+ */
+public interface SearchEngine {
+
+    /**
+     * Searches the given state with the configuration of this engine.
+     * @param s The current state of the game, with the player to move in turn. It is not changed.
+     * @return the position of the best move found, or null if the player in turn cannot move
+     */
+    Position decision(GameState s);
+
+    /**
+     * Searches the given state within the given time budget. Engines without time control
+     * ignore the budget and search as decision(GameState) does.
+     */
+    default Position decision(GameState s, Duration budget) {
+        return decision(s);
+    }
+
+    /**
+     * Asks the decision running on another thread, if any, to stop as soon as it can: it then
+     * returns the best move of the deepest search it completed. A decision that starts after the
+     * call is not stopped. Engines without time control ignore it and finish their decision.
+     */
+    default void stop() {
+    }
+
+    /**
+     * Returns true if stop makes a running decision return early. Without it a decision can only
+     * be waited for, so it should not be started without a need for its move (e.g. to ponder).
+     */
+    default boolean canStop() {
+        return false;
+    }
+
+    /**
+     * Reports the metrics of every following decision to the given listener. Engines without
+     * metrics ignore it.
+     */
+    default void addListener(SearchListener listener) {
+    }
+
+    default void removeListener(SearchListener listener) {
+    }
+
+    /**
+     * Makes the engine store its search results in the given table (e.g. one that is shared or
+     * kept in a file, see MappedTranspositionTable). Engines without a table ignore it.
+     */
+    default void setTable(TranspositionTable table) {
+    }
+
+    /**
+     * Returns the owner of the results this engine stores in its table on boards of the given
+     * size (see MappedTranspositionTable): a name that differs for engines and evaluations whose
+     * scores do not mean the same. Null if the engine has no table.
+     */
+    default String getTableOwner(int size) {
+        return null;
+    }
+
+    /**
+     * Forgets the results of earlier games (e.g. clears the transposition tables, also shared
+     * ones), so that an engine reused for another game plays it as a new one would. Engines
+     * without such state ignore it.
+     */
+    default void newGame() {
+    }
+
+    /**
+     * Returns the metrics of the latest decision, or null if there is none or the engine has no metrics.
+     */
+    default SearchStats getStats() {
+        return null;
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Receives the metrics of the decisions of a search engine (see SearchStats and
+ * SearchEngine.addListener). The methods are called on the thread that called decision, while the
+ * engine is searching, so they should return quickly.
+ */
+public interface SearchListener {
+
+    /**
+     * Called when an iteration of the decision is finished or aborted.
+     */
+    default void iterationFinished(SearchStats stats, SearchStats.Iteration iteration) {
+    }
+
+    /**
+     * Called when the decision is finished, just before the engine returns the move.
+     */
+    void decisionFinished(SearchStats stats);
+}
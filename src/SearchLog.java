@@ -0,0 +1,52 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * A SearchListener that appends the metrics of every decision as one line of JSON (see
+ * SearchStats.toJson) to a file, e.g. for analysing slow moves afterwards. SmarterAI logs to the
+ * file named by the system property othello.searchlog. There is one log per file, shared by all
+ * engines logging to it, so that lines from different threads are not mixed.
+ */
+public class SearchLog implements SearchListener {
+    private static final ConcurrentHashMap<Path, SearchLog> logs = new ConcurrentHashMap<>();
+
+    private final BufferedWriter out;
+
+    private SearchLog(Path file) throws IOException {
+        out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Returns the log appending to the given file, opening it on first use.
+     * @throws UncheckedIOException if the file cannot be opened
+     */
+    public static SearchLog forFile(Path file) {
+        return logs.computeIfAbsent(file.toAbsolutePath().normalize(), f -> {
+            try {
+                return new SearchLog(f);
+            } catch(IOException e) {
+                throw new UncheckedIOException("Cannot open search log: " + f, e);
+            }
+        });
+    }
+
+    public synchronized void decisionFinished(SearchStats stats) {
+        try {
+            out.write(stats.toJson());
+            out.newLine();
+            out.flush();
+        } catch(IOException e) {
+            // the log must not stop the game
+            System.err.println("Cannot write search log: " + e.getMessage());
+        }
+    }
+}
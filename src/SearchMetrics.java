@@ -0,0 +1,92 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * A SearchListener that sums up the metrics of all decisions of the engines it listens to and
+ * publishes them as a JMX MBean named othello:type=SearchMetrics,name=<engine>. SmarterAI
+ * registers one per engine class when the system property othello.jmx is true.
+ */
+public class SearchMetrics implements SearchListener, SearchMetricsMBean {
+    private static final ConcurrentHashMap<String, SearchMetrics> registered = new ConcurrentHashMap<>();
+
+    private long decisions, nodes, nanos, maxNanos, probes, hits, cutoffs, firstMoveCutoffs;
+    private SearchStats last;
+
+    /**
+     * Returns the metrics registered for the given engine name, registering them on first use.
+     * @throws IllegalStateException if they cannot be registered with the platform MBean server
+     */
+    public static SearchMetrics forEngine(String engine) {
+        return registered.computeIfAbsent(engine, e -> {
+            SearchMetrics metrics = new SearchMetrics();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                        new ObjectName("othello:type=SearchMetrics,name=" + ObjectName.quote(e)));
+            } catch(JMException ex) {
+                throw new IllegalStateException("Cannot register search metrics for " + e, ex);
+            }
+            return metrics;
+        });
+    }
+
+    public synchronized void decisionFinished(SearchStats stats) {
+        decisions++;
+        nodes += stats.getNodes();
+        nanos += stats.getNanos();
+        maxNanos = Math.max(maxNanos, stats.getNanos());
+        probes += stats.getTableProbes();
+        hits += stats.getTableHits();
+        cutoffs += stats.getCutoffs();
+        firstMoveCutoffs += stats.getFirstMoveCutoffs();
+        last = stats;
+    }
+
+    public synchronized long getDecisions() {
+        return decisions;
+    }
+
+    public synchronized long getNodes() {
+        return nodes;
+    }
+
+    public synchronized double getAverageNodesPerSecond() {
+        return nanos == 0 ? 0 : nodes * 1e9 / nanos;
+    }
+
+    public synchronized double getLastNodesPerSecond() {
+        return last == null ? 0 : last.getNodesPerSecond();
+    }
+
+    public synchronized int getLastDepth() {
+        return last == null ? 0 : last.getDepth();
+    }
+
+    public synchronized double getLastDecisionMillis() {
+        return last == null ? 0 : last.getNanos() / 1e6;
+    }
+
+    public synchronized double getMaxDecisionMillis() {
+        return maxNanos / 1e6;
+    }
+
+    public synchronized double getTableHitRate() {
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+
+    public synchronized double getFirstMoveCutoffRate() {
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    public synchronized String getLastPrincipalVariation() {
+        return last == null ? "" : last.getPrincipalVariation().toString();
+    }
+
+    public synchronized void reset() {
+        decisions = nodes = nanos = maxNanos = probes = hits = cutoffs = firstMoveCutoffs = 0;
+        last = null;
+    }
+}
@@ -0,0 +1,18 @@
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * The JMX interface of SearchMetrics, for watching the search with e.g. jconsole.
+ */
+public interface SearchMetricsMBean {
+    long getDecisions();
+    long getNodes();
+    double getAverageNodesPerSecond();
+    double getLastNodesPerSecond();
+    int getLastDepth();
+    double getLastDecisionMillis();
+    double getMaxDecisionMillis();
+    double getTableHitRate();
+    double getFirstMoveCutoffRate();
+    String getLastPrincipalVariation();
+    void reset();
+}
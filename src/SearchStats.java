@@ -0,0 +1,284 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * The metrics of one decision of a search engine: per iteration of the iterative deepening (and
+ * per run of the endgame solver) the depth, the nodes visited, the time, the beta cutoffs and how
+ * many of them came on the first move searched, the transposition table probes and hits, the value
+ * and the principal variation; and in total the deepest completed iteration, the nodes per second
+ * and the move chosen.
+ * The engine creates one for every decision and reports each finished iteration and the end of the
+ * decision to it, which passes them on to the listeners (see SearchListener). The table statistics
+ * are only approximate when the table is shared between threads, and the principal variation is
+ * read from the table after the iteration, so it may be cut short where entries were replaced.
+ */
+public class SearchStats {
+
+    /**
+     * One iteration of a decision. The counts are only those of this iteration.
+     */
+    public static final class Iteration {
+        public final int depth;
+        // false if the iteration was aborted at the deadline, so its value and move are not used
+        public final boolean completed;
+        public final boolean endgame;
+        public final long nodes, nanos, cutoffs, firstMoveCutoffs, tableProbes, tableHits;
+        // for the player in turn at the root
+        public final int value;
+        public final List<Position> principalVariation;
+
+        Iteration(int depth, boolean completed, boolean endgame, long nodes, long nanos, long cutoffs,
+                  long firstMoveCutoffs, long tableProbes, long tableHits, int value, List<Position> principalVariation) {
+            this.depth = depth;
+            this.completed = completed;
+            this.endgame = endgame;
+            this.nodes = nodes;
+            this.nanos = nanos;
+            this.cutoffs = cutoffs;
+            this.firstMoveCutoffs = firstMoveCutoffs;
+            this.tableProbes = tableProbes;
+            this.tableHits = tableHits;
+            this.value = value;
+            this.principalVariation = principalVariation;
+        }
+
+        public double getNodesPerSecond() {
+            return nanos == 0 ? 0 : nodes * 1e9 / nanos;
+        }
+    }
+
+    private final String engine;
+    private final GameState root;
+    private final TranspositionTable table;
+    private final List<SearchListener> listeners;
+    private final List<Iteration> iterations = new ArrayList<>();
+    private final long start = System.nanoTime();
+
+    // the totals of the engine and the table at the end of the previous iteration
+    private long lastTime = start, lastNodes, lastCutoffs, lastFirstMoveCutoffs, lastProbes, lastHits;
+    private long nanos = -1;
+    private Position move;
+
+    /**
+     * @param engine the name of the engine
+     * @param root the state searched, which is copied
+     * @param table the transposition table of the engine, or null if it has none
+     * @param listeners the listeners to report to
+     */
+    public SearchStats(String engine, GameState root, TranspositionTable table, List<SearchListener> listeners) {
+        this.engine = engine;
+        this.root = new GameState(root);
+        this.table = table;
+        this.listeners = listeners;
+        if(table != null) {
+            lastProbes = table.getProbes();
+            lastHits = table.getHits();
+        }
+    }
+
+    /**
+     * Records the end of an iteration of the search. The counts are the totals of the search since
+     * the start of the decision, not counting the endgame solver.
+     * @param bestMove the square of the best move of the iteration, or -1 if there is none
+     */
+    public void iteration(int depth, boolean completed, int value, int bestMove,
+                          long nodes, long cutoffs, long firstMoveCutoffs) {
+        long now = System.nanoTime();
+        long probes = table == null ? 0 : table.getProbes();
+        long hits = table == null ? 0 : table.getHits();
+        List<Position> pv = completed ? principalVariation(bestMove, depth) : Collections.emptyList();
+        add(new Iteration(depth, completed, false, nodes - lastNodes, now - lastTime, cutoffs - lastCutoffs,
+                firstMoveCutoffs - lastFirstMoveCutoffs, probes - lastProbes, hits - lastHits, value, pv));
+
+        lastTime = now;
+        lastNodes = nodes;
+        lastCutoffs = cutoffs;
+        lastFirstMoveCutoffs = firstMoveCutoffs;
+        // reading the variation probes the table too; that is not counted
+        if(table != null) {
+            lastProbes = table.getProbes();
+            lastHits = table.getHits();
+        }
+    }
+
+    /**
+     * Records a run of the endgame solver, which searches to the end of the game.
+     */
+    public void endgame(EndgameSolver solver, boolean solved) {
+        long now = System.nanoTime();
+        Position m = solver.getMove();
+        List<Position> pv = solved && m != null ? Collections.singletonList(m) : Collections.emptyList();
+        add(new Iteration(root.getEmptyCount(), solved, true, solver.getNodes(), now - lastTime, 0, 0, 0, 0,
+                solved ? solver.getValue() : 0, pv));
+        lastTime = now;
+    }
+
+    private void add(Iteration it) {
+        iterations.add(it);
+        for(SearchListener l : listeners) l.iterationFinished(this, it);
+    }
+
+    /**
+     * Records the end of the decision.
+     * @return the move, for returning it from the engine
+     */
+    public Position finish(Position move) {
+        this.move = move;
+        this.nanos = System.nanoTime() - start;
+        for(SearchListener l : listeners) l.decisionFinished(this);
+        return move;
+    }
+
+    /**
+     * Follows the best moves stored in the table from the root, starting with the given one, as
+     * long as they are legal and the player in turn does not have to pass.
+     */
+    private List<Position> principalVariation(int firstMove, int maxLength) {
+        List<Position> pv = new ArrayList<>();
+        if(firstMove < 0) return pv;
+        GameState s = new GameState(root);
+        int[] legal = new int[s.getSize()*s.getSize()];
+        int move = firstMove;
+        while(true) {
+            pv.add(s.position(move));
+            s.makeMove(move);
+            if(table == null || pv.size() >= maxLength) break;
+            int count = s.legalMoves(legal);
+            long entry = table.probe(s.getHash());
+            if(count == 0 || entry == 0) break;
+            move = TranspositionTable.move(entry);
+            boolean isLegal = false;
+            for(int i = 0; i < count && !isLegal; i++) isLegal = legal[i] == move;
+            if(!isLegal) break;
+        }
+        return pv;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public int getEmptyCount() {
+        return root.getEmptyCount();
+    }
+
+    public List<Iteration> getIterations() {
+        return Collections.unmodifiableList(iterations);
+    }
+
+    /**
+     * Returns the last completed iteration, or null if none was completed.
+     */
+    public Iteration getLastCompleted() {
+        for(int i = iterations.size() - 1; i >= 0; i--)
+            if(iterations.get(i).completed) return iterations.get(i);
+        return null;
+    }
+
+    /**
+     * Returns the depth of the last completed iteration, 0 if none was completed.
+     */
+    public int getDepth() {
+        Iteration it = getLastCompleted();
+        return it == null ? 0 : it.depth;
+    }
+
+    public List<Position> getPrincipalVariation() {
+        Iteration it = getLastCompleted();
+        return it == null ? Collections.emptyList() : it.principalVariation;
+    }
+
+    public Position getMove() {
+        return move;
+    }
+
+    /**
+     * Returns the time of the whole decision, or of the iterations so far if it is not finished.
+     */
+    public long getNanos() {
+        return nanos >= 0 ? nanos : lastTime - start;
+    }
+
+    public long getNodes() {
+        return iterations.stream().mapToLong(it -> it.nodes).sum();
+    }
+
+    public double getNodesPerSecond() {
+        long n = getNanos();
+        return n == 0 ? 0 : getNodes() * 1e9 / n;
+    }
+
+    public long getCutoffs() {
+        return iterations.stream().mapToLong(it -> it.cutoffs).sum();
+    }
+
+    public long getFirstMoveCutoffs() {
+        return iterations.stream().mapToLong(it -> it.firstMoveCutoffs).sum();
+    }
+
+    public long getTableProbes() {
+        return iterations.stream().mapToLong(it -> it.tableProbes).sum();
+    }
+
+    public long getTableHits() {
+        return iterations.stream().mapToLong(it -> it.tableHits).sum();
+    }
+
+    /**
+     * Returns a one-line summary, for printing.
+     */
+    public String summary() {
+        return String.format("depth %d, %,d nodes, %,.0f nodes/s, %.0f ms", getDepth(), getNodes(),
+                getNodesPerSecond(), getNanos() / 1e6);
+    }
+
+    /**
+     * Returns the metrics as a JSON object on one line.
+     */
+    public String toJson() {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"engine\":\"").append(engine.replace("\\", "\\\\").replace("\"", "\\\""))
+         .append("\",\"empties\":").append(getEmptyCount())
+         .append(",\"move\":").append(json(move))
+         .append(",\"depth\":").append(getDepth())
+         .append(",\"nanos\":").append(getNanos())
+         .append(",\"nodes\":").append(getNodes())
+         .append(",\"nps\":").append(Math.round(getNodesPerSecond()))
+         .append(",\"cutoffs\":").append(getCutoffs())
+         .append(",\"firstMoveCutoffs\":").append(getFirstMoveCutoffs())
+         .append(",\"tableProbes\":").append(getTableProbes())
+         .append(",\"tableHits\":").append(getTableHits())
+         .append(",\"pv\":").append(json(getPrincipalVariation()))
+         .append(",\"iterations\":[");
+        for(int i = 0; i < iterations.size(); i++) {
+            Iteration it = iterations.get(i);
+            if(i > 0) b.append(',');
+            b.append("{\"depth\":").append(it.depth)
+             .append(",\"completed\":").append(it.completed)
+             .append(",\"endgame\":").append(it.endgame)
+             .append(",\"nanos\":").append(it.nanos)
+             .append(",\"nodes\":").append(it.nodes)
+             .append(",\"cutoffs\":").append(it.cutoffs)
+             .append(",\"firstMoveCutoffs\":").append(it.firstMoveCutoffs)
+             .append(",\"tableProbes\":").append(it.tableProbes)
+             .append(",\"tableHits\":").append(it.tableHits)
+             .append(",\"value\":").append(it.value)
+             .append(",\"pv\":").append(json(it.principalVariation))
+             .append('}');
+        }
+        return b.append("]}").toString();
+    }
+
+    private static String json(Position p) {
+        return p == null ? "null" : "[" + p.col + "," + p.row + "]";
+    }
+
+    private static String json(List<Position> pv) {
+        StringBuilder b = new StringBuilder("[");
+        for(int i = 0; i < pv.size(); i++) b.append(i > 0 ? "," : "").append(json(pv.get(i)));
+        return b.append(']').toString();
+    }
+}
@@ -1,38 +1,227 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * @author Sabina Hult
  * @version 7.3.2019
  * An attempt at a smarter AI (than DumAI) using either the MINIMAX algorithm, MINIMAX with alpha-beta
- * pruning or H-MINIMAX for move decisions.
+ * pruning, H-MINIMAX, Principal Variation Search (PVS) or Monte Carlo Tree Search (MCTS) for move
+ * decisions.
+ * The search engine is chosen by class name with the system property othello.engine (e.g.
+ * -Dothello.engine=PVS), and is HMINIMAX by default.
+ * The metrics of every decision (see SearchStats) can be appended to a JSON-lines file with the
+ * system property othello.searchlog (e.g. -Dothello.searchlog=search.jsonl) and published over
+ * JMX with -Dothello.jmx=true (see SearchMetrics); more listeners are added with addListener.
+ * With an opening book (see OpeningBook, e.g. -Dothello.book=book.bin) a move in the book is
+ * played without searching.
+ * With -Dothello.table=table.bin the search keeps its transposition table in that file (see
+ * MappedTranspositionTable), so later runs and other processes start from its results; it is
+ * created for the board size, engine and evaluation weights of the first decision (see
+ * SearchEngine.getTableOwner), and a file for others is left alone and not used; engines without
+ * a table (MINIMAX, MINIMAXAB and MCTS) do not use it.
+ * It can ponder (see IPonderingAI and setPonderMode, or -Dothello.ponder=predicted) with an engine
+ * that can be stopped (see SearchEngine.canStop; MINIMAX and MINIMAXAB cannot): on the opponent's
+ * time it searches the position after the reply predicted by its last search (the second move of
+ * the principal variation), or all replies. If the predicted position is reached, the pondering
+ * search goes on as the real one, and it only gets as much time as the budget minus the time it
+ * already pondered; otherwise it is stopped, but has filled the transposition table. The
+ * pondering searches are reported to the search listeners like any decision.
+ * Decisions can be made asynchronously (see IAsyncOthelloAI); cancelling one stops the search,
+ * which then returns the best move of the deepest search it completed. The decisions of one
+ * instance are made one at a time, so one that is started while another is still being stopped
+ * waits for it.
  */
-public class SmarterAI implements IOthelloAI {
+public class SmarterAI implements IPonderingAI, IAsyncOthelloAI {
+    // well below the 10 seconds on average that are acceptable
+    public static final Duration DEFAULT_TIME_BUDGET = Duration.ofSeconds(5);
+    public static final String ENGINE_PROPERTY = "othello.engine";
+    public static final String DEFAULT_ENGINE = "HMINIMAX";
+    public static final String SEARCH_LOG_PROPERTY = "othello.searchlog";
+    public static final String JMX_PROPERTY = "othello.jmx";
+    public static final String BOOK_PROPERTY = "othello.book";
+    public static final String PONDER_PROPERTY = "othello.ponder";
+    public static final String TABLE_PROPERTY = "othello.table";
+    public static final int PONDER_OFF = 0;
+    public static final int PONDER_PREDICTED = 1; // the predicted reply, or all if there is no prediction
+    public static final int PONDER_ALL = 2;
+    // the budget of a pondering search, which is stopped long before
+    private static final Duration PONDER_LIMIT = Duration.ofHours(1);
+    // how often a stopped search is asked again to stop, in case it had not started yet
+    private static final long STOP_RETRY_MILLIS = 10;
+
     // for calculating avg and max duration of decision
     private List<Double> times;
+    // wall-clock time allowed per move
+    private Duration timeBudget;
+    private SearchEngine engine;
+    // null to always search
+    private OpeningBook book;
+    private int ponderMode;
+    // the running pondering, null if none
+    private Ponder ponder;
+    // the daemon thread that ponders, created on first use
+    private ExecutorService ponderThread;
+    // the metrics of the latest decision made by searching, for predicting the reply
+    private SearchStats lastStats;
+    // the file of the persistent transposition table, null for none, and the owner (see
+    // SearchEngine.getTableOwner) it is opened for, null if the engine does not use it
+    private Path tableFile;
+    private String tableOwner;
 
     public SmarterAI() {
+        this(DEFAULT_TIME_BUDGET);
+    }
+
+    /**
+     * @param timeBudget the wall-clock time each call of decideMove may take
+     */
+    public SmarterAI(Duration timeBudget) {
+        this(createEngine(System.getProperty(ENGINE_PROPERTY, DEFAULT_ENGINE)), timeBudget);
+    }
+
+    /**
+     * @param engine the search engine that decides the moves
+     * @param timeBudget the wall-clock time each call of decideMove may take
+     * @throws IllegalArgumentException if the book named by othello.book cannot be read, or
+     * othello.ponder is not off, predicted or all
+     */
+    public SmarterAI(SearchEngine engine, Duration timeBudget) {
         times = new ArrayList<>();
+        this.engine = engine;
+        this.timeBudget = timeBudget;
+
+        String log = System.getProperty(SEARCH_LOG_PROPERTY, "");
+        if(!log.isEmpty()) engine.addListener(SearchLog.forFile(Paths.get(log)));
+        if(Boolean.getBoolean(JMX_PROPERTY)) engine.addListener(SearchMetrics.forEngine(engine.getClass().getSimpleName()));
+
+        String bookFile = System.getProperty(BOOK_PROPERTY, "");
+        try {
+            if(!bookFile.isEmpty()) book = OpeningBook.forFile(Paths.get(bookFile));
+        } catch(UncheckedIOException e) {
+            throw new IllegalArgumentException("Cannot read opening book: " + bookFile, e);
+        }
+
+        String table = System.getProperty(TABLE_PROPERTY, "");
+        if(!table.isEmpty()) tableFile = Paths.get(table);
+
+        String ponder = System.getProperty(PONDER_PROPERTY, "off");
+        if(ponder.equalsIgnoreCase("off")) ponderMode = PONDER_OFF;
+        else if(ponder.equalsIgnoreCase("predicted")) ponderMode = PONDER_PREDICTED;
+        else if(ponder.equalsIgnoreCase("all")) ponderMode = PONDER_ALL;
+        else throw new IllegalArgumentException("Unknown ponder mode: " + ponder);
+    }
+
+    /**
+     * Returns a new instance of the search engine with the given class name, which must have a
+     * constructor without parameters.
+     * @throws IllegalArgumentException if the class cannot be instantiated as a SearchEngine
+     */
+    public static SearchEngine createEngine(String className) {
+        try {
+            return (SearchEngine)Class.forName(className).getConstructor().newInstance();
+        } catch(ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Not a search engine: " + className, e);
+        }
+    }
+
+    public SearchEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Reports the metrics of every following decision to the given listener.
+     */
+    public void addListener(SearchListener listener) {
+        engine.addListener(listener);
+    }
+
+    /**
+     * Sets the opening book to play from, null to always search.
+     */
+    public void setBook(OpeningBook book) {
+        this.book = book;
     }
 
     /**
-     * Calculates the move to make for the given game state.
+     * @param mode PONDER_OFF, PONDER_PREDICTED or PONDER_ALL
+     */
+    public void setPonderMode(int mode) {
+        this.ponderMode = mode;
+    }
+
+    public void setTimeBudget(Duration timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Calculates the move to make for the given game state within the time budget of this AI.
      * @param s The current state of the game in which it should be the AI's turn.
      * @return the position for the best move to make at this current state
      */
     public Position decideMove(GameState s) {
+        return decideMove(s, timeBudget);
+    }
+
+    /**
+     * Calculates the move to make for the given game state within the given time budget.
+     * @param s The current state of the game in which it should be the AI's turn.
+     * @param budget the wall-clock time the decision may take
+     * @return the position for the best move to make at this current state
+     */
+    public synchronized Position decideMove(GameState s, Duration budget) {
         System.out.print("Deciding move...");
 
         double start = System.currentTimeMillis();
-        //Position move = MINIMAX.decision(s);
-        //Position move = MINIMAXAB.alphaBetaSearch(s);
-        Position move = HMINIMAX.decision(s);
+        Ponder pondered = ponder;
+        ponder = null;
+        Position move = book == null ? null : book.lookup(s);
+        if(move != null) {
+            if(pondered != null) pondered.stop(0);
+            lastStats = null;
+            times.add(System.currentTimeMillis()-start);
+            System.out.println("Done (book)");
+            return move;
+        }
+
+        boolean ponderHit = pondered != null && pondered.matches(s);
+        if(ponderHit) // the pondering search goes on for the rest of the budget
+            move = pondered.stop(budget.toNanos() - (System.nanoTime() - pondered.start));
+        else if(pondered != null)
+            pondered.stop(0);
+        if(move == null) {
+            useTableFile(s.getSize());
+            move = engine.decision(s, budget);
+        }
         times.add(System.currentTimeMillis()-start);
 
-        System.out.println("Done");
+        lastStats = engine.getStats();
+        String summary = lastStats == null ? "" : lastStats.summary();
+        if(ponderHit) summary = "ponder hit" + (summary.isEmpty() ? "" : ", " + summary);
+        System.out.println(summary.isEmpty() ? "Done" : "Done (" + summary + ")");
         return move;
     }
 
+    /**
+     * Calculates the move to make for the given game state within the time budget of this AI, on
+     * a thread of AsyncAI.
+     */
+    public CompletableFuture<Position> decideMoveAsync(GameState s, CancellationToken token) {
+        GameState copy = new GameState(s);
+        return AsyncAI.run(() -> decideMove(copy), token, engine::stop);
+    }
+
     /**
      * Calculates the average over all decideMove execution times, as well as the max.
      * @return an array of {avg, max} in doubles
@@ -43,4 +232,138 @@ public class SmarterAI implements IOthelloAI {
 
         return new double[]{avg, max};
     }
+
+    /**
+     * Stops the running pondering and starts the new one on the ponder thread, which also maps
+     * the table file if needed. It waits for the decision of this AI that is running, if any, so
+     * a GUI should call it off its event thread.
+     */
+    public synchronized void startPondering(GameState s) {
+        stopPondering();
+        if(ponderMode == PONDER_OFF || s.isFinished() || !engine.canStop()) return;
+
+        GameState position = new GameState(s);
+        if(position.legalMoves().isEmpty()) { // the opponent has to pass, so this AI is in turn again
+            position.changePlayer();
+        } else if(ponderMode == PONDER_PREDICTED) {
+            Position reply = predictedReply(position);
+            if(reply != null) position.insertToken(reply);
+        }
+        ponder = new Ponder(position);
+    }
+
+    /**
+     * Sets the file named by othello.table as the table of the engine, if it is not already set
+     * for the engine's table owner on the given board size (which changes with the board size and
+     * the weights of the evaluation). Engines without a table do not use the file. If the file
+     * cannot be used, the engine keeps its table, or gets a new one in memory if it was using the
+     * file for another owner.
+     */
+    private void useTableFile(int size) {
+        if(tableFile == null) return;
+        String owner = engine.getTableOwner(size);
+        if(owner == null || owner.equals(tableOwner)) return;
+        try {
+            engine.setTable(MappedTranspositionTable.forFile(tableFile, size, owner, HMINIMAX.DEFAULT_TABLE_BYTES));
+            tableOwner = owner;
+        } catch(IOException | IllegalArgumentException e) {
+            System.err.println("Not using the transposition table file: " + e.getMessage());
+            if(tableOwner != null) engine.setTable(new TranspositionTable(HMINIMAX.DEFAULT_TABLE_BYTES));
+            tableOwner = owner;
+        }
+    }
+
+    /**
+     * Prepares this AI for a new game when it is reused for several: stops the pondering and makes
+     * the engine forget the results of earlier games (see SearchEngine.newGame), except when they
+     * are kept in the table file, whose results are meant to carry over.
+     */
+    public synchronized void newGame() {
+        stopPondering();
+        lastStats = null;
+        if(tableOwner == null) engine.newGame();
+    }
+
+    public synchronized void stopPondering() {
+        Ponder p = ponder;
+        ponder = null;
+        if(p != null) p.stop(0);
+    }
+
+    /**
+     * Returns the opponent's reply in the principal variation of the latest search, if the state is
+     * the one after that search's move and the reply is legal in it, otherwise null.
+     */
+    private Position predictedReply(GameState s) {
+        SearchStats stats = lastStats;
+        if(stats == null) return null;
+        List<Position> pv = stats.getPrincipalVariation();
+        if(pv.size() < 2 || !pv.get(0).equals(stats.getMove()) || stats.getEmptyCount() != s.getEmptyCount() + 1)
+            return null;
+        Position reply = pv.get(1);
+        return s.legalMoves().contains(reply) ? reply : null;
+    }
+
+    private ExecutorService ponderThread() {
+        if(ponderThread == null) {
+            ponderThread = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "SmarterAI-ponder");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return ponderThread;
+    }
+
+    /**
+     * A search of one position on the ponder thread.
+     */
+    private final class Ponder {
+        final GameState position;
+        final long start = System.nanoTime();
+        final Future<Position> result;
+
+        Ponder(GameState position) {
+            this.position = position;
+            this.result = ponderThread().submit(() -> {
+                useTableFile(position.getSize()); // decideMove only calls it once this is done
+                return engine.decision(position, PONDER_LIMIT);
+            });
+        }
+
+        /**
+         * Returns true if the given state is the pondered position.
+         */
+        boolean matches(GameState s) {
+            return s.getHash() == position.getHash() && s.getEmptyCount() == position.getEmptyCount()
+                    && s.getSize() == position.getSize();
+        }
+
+        /**
+         * Lets the search run for at most the given time, then stops it and waits for it, even if
+         * the thread is interrupted, since the engine cannot search two positions at the same time.
+         * @return the move it found, null if it found none
+         */
+        Position stop(long waitNanos) {
+            long wait = Math.max(0, waitNanos);
+            boolean interrupted = false;
+            try {
+                while(true) {
+                    try {
+                        return result.get(wait, TimeUnit.NANOSECONDS);
+                    } catch(TimeoutException e) {
+                        // stop it, and again after a while in case it had not started searching yet
+                    } catch(InterruptedException e) {
+                        interrupted = true;
+                    } catch(ExecutionException e) {
+                        throw new IllegalStateException("Pondering failed", e.getCause());
+                    }
+                    engine.stop();
+                    wait = TimeUnit.MILLISECONDS.toNanos(STOP_RETRY_MILLIS);
+                }
+            } finally {
+                if(interrupted) Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
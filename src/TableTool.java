@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Shows, ages and compacts transposition table files (see MappedTranspositionTable):
+ *   java TableTool info table.bin
+ *   java TableTool age table.bin generations
+ *   java TableTool compact table.bin new.bin [megabytes] [minDepth]
+ * info prints the header and how many entries there are per depth and per age (the number of
+ * searches since the entry was stored). age removes the entries more than the given number of
+ * searches old; since the generation of an entry is kept in 5 bits, ages wrap around after 32
+ * searches, so this only tells recent entries from old ones. compact copies the entries of at
+ * least minDepth into a new table of the given size (by default the same as the old one), keeping
+ * the deepest (and then the most recent) entry where several fall into one slot.
+ * The tools should not be used on a file that a running search is writing to.
+ */
+public class TableTool {
+    private static final int GENERATIONS = 32;
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) usage();
+        Path file = Paths.get(args[1]);
+        MappedTranspositionTable table = MappedTranspositionTable.open(file);
+        switch(args[0]) {
+            case "info":
+                info(table);
+                break;
+            case "age":
+                if(args.length < 3) usage();
+                int removed = age(table, Integer.parseInt(args[2]));
+                table.force();
+                System.out.printf("Removed %d of %d entries%n", removed, table.getEntryCount());
+                break;
+            case "compact":
+                if(args.length < 3) usage();
+                Path target = Paths.get(args[2]);
+                if(Files.exists(target) && Files.isSameFile(file, target)) throw new IllegalArgumentException("Cannot compact a table into itself");
+                long bytes = args.length > 3 ? Long.parseLong(args[3]) << 20 : (long) table.getEntryCount() * TranspositionTable.BYTES_PER_ENTRY;
+                int minDepth = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+                MappedTranspositionTable.create(target, table.getSize(), table.getOwner(), bytes);
+                MappedTranspositionTable compacted = MappedTranspositionTable.open(target);
+                int kept = compact(table, compacted, minDepth);
+                compacted.force();
+                System.out.printf("Kept %d entries in %d slots%n", kept, compacted.getEntryCount());
+                break;
+            default:
+                usage();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java TableTool info table.bin");
+        System.err.println("       java TableTool age table.bin generations");
+        System.err.println("       java TableTool compact table.bin new.bin [megabytes] [minDepth]");
+        System.exit(1);
+    }
+
+    private static void info(MappedTranspositionTable table) {
+        int[] depths = new int[256];
+        int[] ages = new int[GENERATIONS];
+        int used = 0;
+        for(int i = 0; i < table.getEntryCount(); i++) {
+            long d = table.data(i);
+            if(d == 0) continue;
+            used++;
+            depths[TranspositionTable.depth(d)]++;
+            ages[entryAge(table, d)]++;
+        }
+        System.out.printf("%dx%d boards, owner %s, generation %d%n", table.getSize(), table.getSize(),
+                table.getOwner(), table.getGeneration());
+        System.out.printf("%d of %d slots used (%.1f%%)%n", used, table.getEntryCount(), 100.0 * used / table.getEntryCount());
+        for(int depth = 0; depth < depths.length; depth++) {
+            if(depths[depth] > 0) System.out.printf("depth %3d: %d%n", depth, depths[depth]);
+        }
+        for(int age = 0; age < GENERATIONS; age++) {
+            if(ages[age] > 0) System.out.printf("age %3d: %d%n", age, ages[age]);
+        }
+    }
+
+    /**
+     * Returns the number of searches since the entry was stored, modulo GENERATIONS.
+     */
+    private static int entryAge(MappedTranspositionTable table, long entry) {
+        return (table.getGeneration() - TranspositionTable.generation(entry)) & (GENERATIONS - 1);
+    }
+
+    /**
+     * Removes the entries more than the given number of searches old.
+     * @return the number of removed entries
+     */
+    static int age(MappedTranspositionTable table, int generations) {
+        int removed = 0;
+        for(int i = 0; i < table.getEntryCount(); i++) {
+            long d = table.data(i);
+            if(d != 0 && entryAge(table, d) > generations) {
+                table.put(i, 0, 0);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Copies the entries of at least the given depth from one table into the other.
+     * @return the number of entries in the new table
+     */
+    static int compact(MappedTranspositionTable from, MappedTranspositionTable to, int minDepth) {
+        to.generation = from.getGeneration();
+        to.newSearch(); // the entries keep their generations, and the new table goes on from the next
+        int mask = to.getEntryCount() - 1;
+        int kept = 0;
+        for(int i = 0; i < from.getEntryCount(); i++) {
+            long d = from.data(i);
+            if(d == 0 || TranspositionTable.depth(d) < minDepth) continue;
+            long hash = from.key(i) ^ d;
+            int slot = (int) hash & mask;
+            long old = to.data(slot);
+            if(old != 0) {
+                int depth = TranspositionTable.depth(d), oldDepth = TranspositionTable.depth(old);
+                if(oldDepth > depth || oldDepth == depth && entryAge(from, old) <= entryAge(from, d)) continue;
+            } else {
+                kept++;
+            }
+            to.put(slot, hash ^ d, d);
+        }
+        return kept;
+    }
+}
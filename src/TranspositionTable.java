@@ -0,0 +1,186 @@
+import java.util.Arrays;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Fixed-size transposition table for storing search results by Zobrist hash (see Zobrist).
+ * The number of entries is the largest power of two that fits in the given memory budget, and an
+ * entry is stored in the slot given by the low bits of the hash.
+ * Each entry is two longs: the packed data (score, remaining depth, bound type, best move and the
+ * search generation) and the hash xor'ed with the data, so a slot that was torn by a concurrent
+ * write simply does not match on the next probe.
+ * An entry is replaced if it is from an earlier search or not deeper than the new one.
+ * The slots are kept in two long arrays; MappedTranspositionTable keeps them in a file instead.
+ */
+public class TranspositionTable {
+    public static final int EXACT = 0;  // the score is the exact value
+    public static final int LOWER = 1;  // the search failed high, the value is at least the score
+    public static final int UPPER = 2;  // the search failed low, the value is at most the score
+
+    public static final int BYTES_PER_ENTRY = 16;
+    static final long VALID = 1L << 63;  // set in every stored entry, so 0 means a miss
+
+    // the slots, null if a subclass keeps them elsewhere
+    private final long[] keys;
+    private final long[] data;
+    private final int mask;
+    int generation;
+
+    // statistics, for sizing the table; only approximate when the table is shared between threads
+    private long probes, hits, stores, replacements;
+
+    /**
+     * Creates a table using at most the given number of bytes (and at least one entry).
+     */
+    public TranspositionTable(long bytes) {
+        int size = entriesFor(bytes, 1 << 30);
+        keys = new long[size];
+        data = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Creates a table with the given number of entries (a power of two) whose slots are kept by the
+     * subclass, which overrides key, data, put and clear.
+     */
+    TranspositionTable(int entries) {
+        keys = null;
+        data = null;
+        mask = entries - 1;
+    }
+
+    /**
+     * Returns the number of entries of a table of at most the given number of bytes: the largest
+     * power of two that fits, at least 1 and at most max.
+     */
+    static int entriesFor(long bytes, int max) {
+        long entries = Math.max(1, bytes / BYTES_PER_ENTRY);
+        return Integer.highestOneBit((int) Math.min(entries, max));
+    }
+
+    long key(int i) {
+        return keys[i];
+    }
+
+    long data(int i) {
+        return data[i];
+    }
+
+    void put(int i, long key, long d) {
+        data[i] = d;
+        keys[i] = key;
+    }
+
+    /**
+     * Starts a new search: entries from earlier searches are replaced before any others.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & 0x1F;
+    }
+
+    /**
+     * Returns the entry stored for the given hash, or 0 if there is none. Use the static
+     * methods score, depth, bound and move to read the entry.
+     */
+    public long probe(long hash) {
+        probes++;
+        int i = (int) hash & mask;
+        long d = data(i);
+        if(d != 0 && (key(i) ^ d) == hash) {
+            hits++;
+            return d;
+        }
+        return 0;
+    }
+
+    /**
+     * Stores a search result for the given hash.
+     * @param depth the remaining depth the score was searched to
+     * @param bound EXACT, LOWER or UPPER
+     * @param move the square of the best move, or -1 if there is none
+     */
+    public void store(long hash, int depth, int bound, int score, int move) {
+        int i = (int) hash & mask;
+        long old = data(i);
+        long oldKey = key(i);
+        if(old != 0 && (oldKey ^ old) != hash && generation(old) == generation && depth(old) > depth)
+            return; // keep the deeper entry from this search
+
+        if(old != 0 && (oldKey ^ old) != hash) replacements++;
+        stores++;
+        long d = VALID
+                | (long) generation << 58
+                | (long) (move & 0xFFFF) << 42
+                | (long) bound << 40
+                | (long) (depth & 0xFF) << 32
+                | (score & 0xFFFFFFFFL);
+        put(i, hash ^ d, d);
+    }
+
+    public static int score(long entry) {
+        return (int) entry;
+    }
+
+    public static int depth(long entry) {
+        return (int) (entry >>> 32) & 0xFF;
+    }
+
+    public static int bound(long entry) {
+        return (int) (entry >>> 40) & 0x3;
+    }
+
+    /**
+     * Returns the square of the best move of the entry, or -1 if none was stored.
+     */
+    public static int move(long entry) {
+        int move = (int) (entry >>> 42) & 0xFFFF;
+        return move == 0xFFFF ? -1 : move;
+    }
+
+    static int generation(long entry) {
+        return (int) (entry >>> 58) & 0x1F;
+    }
+
+    /**
+     * Removes all entries and resets the statistics.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+        resetStats();
+    }
+
+    public void resetStats() {
+        probes = hits = stores = replacements = 0;
+    }
+
+    public int getEntryCount() {
+        return mask + 1;
+    }
+
+    public long getProbes() {
+        return probes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getStores() {
+        return stores;
+    }
+
+    /**
+     * Returns the number of stores that overwrote an entry for another position.
+     */
+    public long getReplacements() {
+        return replacements;
+    }
+
+    /**
+     * Returns the fraction of probes that found an entry, 0 if there were no probes.
+     */
+    public double getHitRate() {
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+}
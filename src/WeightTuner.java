@@ -0,0 +1,309 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Offline tuning of the PatternEvaluator weights, in two steps:
+ *   java WeightTuner generate positions.bin games [size] [depth]
+ *   java WeightTuner fit positions.bin weights.bin [iterations]
+ * generate plays games against itself in parallel (a few random moves, then HMINIMAX) until
+ * SOLVE_EMPTIES squares are empty, solves the rest exactly with the EndgameSolver, and labels
+ * every position of the game with the final disc difference. The positions are streamed to a
+ * compact binary file: a header (magic number, version, board size), then per position the
+ * player in turn, the label and the black and white tokens as bitboard words.
+ * fit finds the weights whose evaluation best predicts the labels (least squares, with every
+ * position also used with the colors swapped) by gradient descent, with the gradient computed in
+ * parallel over all cores, and writes them to a weight file for -Dothello.weights.
+ */
+public class WeightTuner {
+    private static final int MAGIC = 0x4F545053; // "OTPS"
+    private static final int VERSION = 1;
+    // the first moves of each game are random, so that the games differ
+    public static final int RANDOM_PLIES = 8;
+    // positions with at most this many empty squares are solved exactly
+    public static final int SOLVE_EMPTIES = 14;
+    // evaluation units per disc of the predicted final disc difference
+    public static final int UNITS_PER_DISC = 16;
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int DEFAULT_ITERATIONS = 300;
+    // the step size of the gradient descent, shared by all weights a position depends on, and the
+    // regularization towards 0 of rare table entries
+    private static final double LEARNING_RATE = 0.8;
+    private static final double REGULARIZATION = 2;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length >= 3 && args[0].equals("generate")) {
+            int size = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+            int depth = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_DEPTH;
+            generate(Paths.get(args[1]), Integer.parseInt(args[2]), size, depth, System.nanoTime());
+        } else if(args.length >= 3 && args[0].equals("fit")) {
+            int iterations = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_ITERATIONS;
+            fit(Paths.get(args[1]), iterations).save(Paths.get(args[2]));
+        } else {
+            System.err.println("Usage: java WeightTuner generate positions games [size] [depth]");
+            System.err.println("       java WeightTuner fit positions weights [iterations]");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Plays the given number of games on all cores and writes their labeled positions to file.
+     */
+    public static void generate(Path file, int games, int size, int depth, long seed) throws IOException, InterruptedException {
+        ThreadLocal<HMINIMAX> engines = ThreadLocal.withInitial(() -> {
+            HMINIMAX engine = new HMINIMAX();
+            engine.setDepth(depth);
+            engine.setEndgameEmpties(0);
+            engine.setTableSize(4L << 20);
+            return engine;
+        });
+        ThreadLocal<EndgameSolver> solvers = ThreadLocal.withInitial(() -> new EndgameSolver(EndgameSolver.DISC_DIFFERENCE));
+
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+
+            List<Future<?>> tasks = new ArrayList<>();
+            for(int g = 0; g < games; g++) {
+                Random random = new Random(seed + g);
+                tasks.add(pool.submit(() -> {
+                    List<GameState> positions = new ArrayList<>();
+                    int label = playGame(size, engines.get(), solvers.get(), random, positions);
+                    synchronized(out) {
+                        for(GameState s : positions) write(out, s, label);
+                    }
+                    return null;
+                }));
+            }
+            for(Future<?> task : tasks) task.get();
+        } catch(ExecutionException e) {
+            throw new IOException("A game failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Plays one game and adds its positions after the random opening to positions.
+     * @return the final disc difference from black's point of view, with perfect play from
+     * SOLVE_EMPTIES empty squares on
+     */
+    private static int playGame(int size, HMINIMAX engine, EndgameSolver solver, Random random, List<GameState> positions) {
+        GameState s = new GameState(size, 1);
+        int[] moves = new int[size*size];
+        for(int ply = 0; !s.isFinished(); ply++) {
+            int count = s.legalMoves(moves);
+            if(count == 0) {
+                s.changePlayer();
+                continue;
+            }
+            if(ply >= RANDOM_PLIES) positions.add(new GameState(s));
+            if(s.getEmptyCount() <= SOLVE_EMPTIES) {
+                solver.solve(s, Long.MAX_VALUE);
+                return s.getPlayerInTurn() == 1 ? solver.getValue() : -solver.getValue();
+            }
+            Position move = ply < RANDOM_PLIES ? s.position(moves[random.nextInt(count)]) : engine.decision(s);
+            s.insertToken(move);
+        }
+        int[] tokens = s.countTokens();
+        return tokens[0] - tokens[1];
+    }
+
+    private static void write(DataOutputStream out, GameState s, int label) throws IOException {
+        BitBoard board = s.getBitBoard();
+        int squares = s.getSize() * s.getSize();
+        out.writeByte(s.getPlayerInTurn());
+        out.writeShort(label);
+        for(int player = 1; player <= 2; player++) {
+            for(int base = 0; base < squares; base += 64) {
+                long word = 0;
+                for(int sq = base; sq < Math.min(base + 64, squares); sq++)
+                    if(board.get(sq) == player) word |= 1L << (sq - base);
+                out.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * The features of the positions of a position file, and their labels.
+     */
+    private static final class Data {
+        final int size;
+        final List<int[]> indices = new ArrayList<>();
+        final List<int[]> terms = new ArrayList<>();  // stable tokens, mobility and frontier differences
+        final List<Integer> labels = new ArrayList<>();
+
+        Data(int size) {
+            this.size = size;
+        }
+
+        void add(GameState s, int label, PatternWeights w) {
+            Patterns patterns = Patterns.forSize(size);
+            int[] idx = s.getPatternIndices().clone();
+            int stable = 0;
+            for(int p = 0; p < idx.length; p++)
+                if(patterns.getType(p) == Patterns.EDGE) stable += w.stable[idx[p]];
+            BitBoard board = s.getBitBoard();
+            indices.add(idx);
+            terms.add(new int[]{stable, board.mobility(1) - board.mobility(2), board.frontier(1) - board.frontier(2)});
+            labels.add(label);
+        }
+    }
+
+    /**
+     * Reads a position file, adding every position a second time with the colors swapped.
+     */
+    private static Data read(Path file) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if(in.readInt() != MAGIC) throw new IOException("Not a position file: " + file);
+            int version = in.readInt();
+            if(version != VERSION) throw new IOException("Unsupported position file version " + version + ": " + file);
+            int size = in.readInt();
+            if(size < 1 || size > 64) throw new IOException("Invalid board size " + size + ": " + file);
+
+            Data data = new Data(size);
+            PatternWeights w = new PatternWeights(size);
+            int squares = size * size;
+            int words = (squares + 63) >>> 6;
+            long[] bits = new long[2 * words];
+            while(true) {
+                int player;
+                try {
+                    player = in.readByte();
+                } catch(EOFException e) {
+                    return data;
+                }
+                int label = in.readShort();
+                for(int i = 0; i < bits.length; i++) bits[i] = in.readLong();
+
+                int[][] board = new int[size][size];
+                int[][] swapped = new int[size][size];
+                for(int sq = 0; sq < squares; sq++) {
+                    int token = 0;
+                    if((bits[sq >>> 6] >>> sq & 1) != 0) token = 1;
+                    else if((bits[words + (sq >>> 6)] >>> sq & 1) != 0) token = 2;
+                    board[sq / size][sq % size] = token;
+                    swapped[sq / size][sq % size] = token == 0 ? 0 : 3 - token;
+                }
+                data.add(new GameState(board, player), label, w);
+                data.add(new GameState(swapped, 3 - player), -label, w);
+            }
+        }
+    }
+
+    /**
+     * Fits the weights to the positions of the given file.
+     */
+    public static PatternWeights fit(Path positions, int iterations) throws IOException {
+        Data data = read(positions);
+        Patterns patterns = Patterns.forSize(data.size);
+        int n = data.labels.size();
+        int[] type = new int[patterns.getCount()];
+        for(int p = 0; p < type.length; p++) type[p] = patterns.getType(p);
+        System.out.println(n + " positions (with swapped colors)");
+
+        // the number of positions each table entry occurs in, for scaling its steps
+        double[][] counts = new double[Patterns.TYPES][];
+        double[][] tables = new double[Patterns.TYPES][];
+        for(int t = 0; t < Patterns.TYPES; t++) {
+            counts[t] = new double[patterns.getTableSize(t)];
+            tables[t] = new double[patterns.getTableSize(t)];
+        }
+        double[] termSquares = new double[3];
+        for(int i = 0; i < n; i++) {
+            int[] idx = data.indices.get(i);
+            for(int p = 0; p < idx.length; p++) counts[type[p]][idx[p]]++;
+            int[] x = data.terms.get(i);
+            for(int k = 0; k < 3; k++) termSquares[k] += (double) x[k] * x[k];
+        }
+        double[] termWeights = new double[3];
+        // every position depends on this many weights, which are all changed at once
+        double step = LEARNING_RATE / (type.length + 3);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        for(int it = 0; it < iterations; it++) {
+            final double[][] w = tables;
+            final double[] tw = termWeights;
+            Gradient g = IntStream.range(0, threads).parallel()
+                    .mapToObj(t -> gradient(data, type, w, tw, t * n / threads, (t + 1) * n / threads))
+                    .reduce(Gradient::add).get();
+
+            for(int t = 0; t < Patterns.TYPES; t++) {
+                for(int i = 0; i < tables[t].length; i++) {
+                    double grad = g.tables[t][i] + REGULARIZATION * tables[t][i];
+                    tables[t][i] -= step * grad / (counts[t][i] + REGULARIZATION);
+                }
+            }
+            for(int k = 0; k < 3; k++)
+                if(termSquares[k] > 0) termWeights[k] -= step * g.terms[k] / termSquares[k];
+
+            if(it % 10 == 0 || it == iterations - 1)
+                System.out.printf("iteration %d: rms error %.3f discs%n", it, Math.sqrt(g.squaredError / n));
+        }
+
+        PatternWeights result = new PatternWeights(data.size);
+        for(int t = 0; t < Patterns.TYPES; t++)
+            for(int i = 0; i < tables[t].length; i++)
+                result.tables[t][i] = (int) Math.round(tables[t][i] * UNITS_PER_DISC);
+        result.stability = (int) Math.round(termWeights[0] * UNITS_PER_DISC);
+        result.mobility = (int) Math.round(termWeights[1] * UNITS_PER_DISC);
+        result.frontier = (int) Math.round(termWeights[2] * UNITS_PER_DISC);
+        return result;
+    }
+
+    /**
+     * The gradient of half the squared error over some of the positions.
+     */
+    private static final class Gradient {
+        final double[][] tables = new double[Patterns.TYPES][];
+        final double[] terms = new double[3];
+        double squaredError;
+
+        Gradient(double[][] shape) {
+            for(int t = 0; t < Patterns.TYPES; t++) tables[t] = new double[shape[t].length];
+        }
+
+        Gradient add(Gradient g) {
+            for(int t = 0; t < Patterns.TYPES; t++)
+                for(int i = 0; i < tables[t].length; i++) tables[t][i] += g.tables[t][i];
+            for(int k = 0; k < 3; k++) terms[k] += g.terms[k];
+            squaredError += g.squaredError;
+            return this;
+        }
+    }
+
+    private static Gradient gradient(Data data, int[] type, double[][] tables, double[] termWeights, int from, int to) {
+        Gradient g = new Gradient(tables);
+        for(int i = from; i < to; i++) {
+            int[] idx = data.indices.get(i);
+            int[] x = data.terms.get(i);
+            double prediction = 0;
+            for(int p = 0; p < idx.length; p++) prediction += tables[type[p]][idx[p]];
+            for(int k = 0; k < 3; k++) prediction += termWeights[k] * x[k];
+
+            double error = prediction - data.labels.get(i);
+            g.squaredError += error * error;
+            for(int p = 0; p < idx.length; p++) g.tables[type[p]][idx[p]] += error;
+            for(int k = 0; k < 3; k++) g.terms[k] += error * x[k];
+        }
+        return g;
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Sabina Hult
+ * @version 7.3.2019
+ * Zobrist keys for hashing game states: a random 64-bit key per square and player, and one for
+ * white being in turn. The hash of a state is the xor of the keys of its tokens (and the side key),
+ * so a move changes it by xor'ing only the keys of the squares it changes.
+ * The keys are generated from a fixed seed, so hashes are the same in every run.
+ */
+public final class Zobrist {
+    public static final long SEED = 0x3C6EF372FE94F82BL;
+    private static final ConcurrentHashMap<Integer, Zobrist> TABLES = new ConcurrentHashMap<>();
+
+    private final long[] black;
+    private final long[] white;
+    private final long[] flip;  // black ^ white, for turning a token
+    private final long side;
+
+    private Zobrist(int size) {
+        int squares = size * size;
+        black = new long[squares];
+        white = new long[squares];
+        flip = new long[squares];
+        long x = SEED + size;
+        for(int sq = 0; sq < squares; sq++) {
+            black[sq] = x = next(x);
+            white[sq] = x = next(x);
+            flip[sq] = black[sq] ^ white[sq];
+        }
+        side = next(x);
+    }
+
+    /**
+     * Returns the keys for boards with the given number of columns and rows. They are created
+     * once per size and shared by all states.
+     */
+    public static Zobrist forSize(int size) {
+        return TABLES.computeIfAbsent(size, Zobrist::new);
+    }
+
+    /**
+     * Returns the key for a token of the given player (1 or 2) at the given square.
+     */
+    public long token(int sq, int player) {
+        return player == 1 ? black[sq] : white[sq];
+    }
+
+    /**
+     * Returns the change of the hash when the token at the given square is turned.
+     */
+    public long flip(int sq) {
+        return flip[sq];
+    }
+
+    /**
+     * Returns the change of the hash when the player in turn changes.
+     */
+    public long side() {
+        return side;
+    }
+
+    /**
+     * Computes the hash of the given board with the given player in turn from scratch.
+     */
+    public long hash(BitBoard board, int playerInTurn) {
+        long h = playerInTurn == 2 ? side : 0;
+        int squares = board.getSize() * board.getSize();
+        for(int sq = 0; sq < squares; sq++) {
+            int token = board.get(sq);
+            if(token != 0) h ^= token(sq, token);
+        }
+        return h;
+    }
+
+    /**
+     * SplitMix64 step, used to generate the keys from the seed.
+     */
+    private static long next(long x) {
+        long z = x + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}